@@ -18,10 +18,13 @@ package net.danlew.android.joda
 
 import org.gradle.api.DefaultTask
 import org.gradle.api.file.FileCollection
+import org.gradle.api.tasks.Input
 import org.gradle.api.tasks.InputFiles
 import org.gradle.api.tasks.OutputDirectory
 import org.gradle.api.tasks.TaskAction
 import org.gradle.api.tasks.incremental.InputFileDetails
+import org.joda.time.DateTime
+import org.joda.time.DateTimeZone
 import org.joda.time.tz.ZoneInfoCompiler
 import sun.util.calendar.ZoneInfo
 
@@ -30,12 +33,32 @@ import sun.util.calendar.ZoneInfo
  */
 class CompileTzDataTask extends DefaultTask {
 
+    /** Format version of the ZoneMeta file; must match ZoneMetadata in the library */
+    static final int ZONE_META_VERSION = 1
+
+    /** Format version of the ZoneIndex file; must match ZoneIndex in the library */
+    static final int ZONE_INDEX_VERSION = 1
+
+    static final int KIND_FIXED = 0
+
+    static final int KIND_STANDARD = 1
+
+    static final int KIND_DAYLIGHT = 2
+
     @InputFiles
     File[] sources
 
     @OutputDirectory
     File outputDir
 
+    /** First year (inclusive) of transitions to include in ZoneMeta */
+    @Input
+    int metadataStartYear
+
+    /** Last year (inclusive) of transitions to include in ZoneMeta */
+    @Input
+    int metadataEndYear
+
     @TaskAction
     def compile() {
         // Start fresh each time
@@ -43,6 +66,167 @@ class CompileTzDataTask extends DefaultTask {
 
         // Compile the data
         ZoneInfoCompiler zoneInfoCompiler = new ZoneInfoCompiler();
-        zoneInfoCompiler.compile(outputDir, sources)
+        Map<String, DateTimeZone> zones = zoneInfoCompiler.compile(outputDir, sources)
+
+        writeZoneMeta(new File(outputDir, 'ZoneMeta'), zones)
+        writeZoneIndex(new File(outputDir, 'ZoneIndex'), zones)
+    }
+
+    /**
+     * Writes a summary of every zone, so that the library can answer simple questions
+     * (offsets, DST, upcoming transitions) without loading each zone's data.
+     *
+     * Format (all big-endian):
+     *  - short version, long window start, long window end
+     *  - short id count, then each id (UTF), sorted
+     *  - for each id, short index of its canonical zone
+     *  - short zone count, then for each zone: short index of its id, byte kind, short
+     *    period count, then each period as long start, int offset, int standard offset
+     *    (the first period starts at the window start)
+     */
+    void writeZoneMeta(File file, Map<String, DateTimeZone> zones) {
+        long windowStart = new DateTime(metadataStartYear, 1, 1, 0, 0, DateTimeZone.UTC).millis
+        long windowEnd = new DateTime(metadataEndYear + 1, 1, 1, 0, 0, DateTimeZone.UTC).millis
+
+        List<String> ids = new ArrayList<String>(zones.keySet())
+        Collections.sort(ids)
+
+        // UTC is special-cased to DateTimeZone.UTC at runtime, so it's its own zone
+        List<String> canonicalIds = ids.findAll { id -> id == 'UTC' || zones[id].getID() == id }
+
+        file.withDataOutputStream { out ->
+            out.writeShort(ZONE_META_VERSION)
+            out.writeLong(windowStart)
+            out.writeLong(windowEnd)
+
+            out.writeShort(ids.size())
+            ids.each { id -> out.writeUTF(id) }
+            ids.each { id ->
+                out.writeShort(canonicalIds.indexOf(id == 'UTC' ? id : zones[id].getID()))
+            }
+
+            out.writeShort(canonicalIds.size())
+            canonicalIds.each { id ->
+                DateTimeZone zone = zones[id]
+
+                // Only keep transitions where the offsets change (not just the name)
+                List<Long> periods = [windowStart]
+                long instant = windowStart
+                while (!zone.fixed) {
+                    long next = zone.nextTransition(instant)
+                    if (next <= instant || next >= windowEnd) {
+                        break
+                    }
+
+                    if (zone.getOffset(next) != zone.getOffset(instant)
+                        || zone.getStandardOffset(next) != zone.getStandardOffset(instant)) {
+                        periods << next
+                    }
+                    instant = next
+                }
+
+                int kind = KIND_STANDARD
+                if (zone.fixed) {
+                    kind = KIND_FIXED
+                }
+                else if (periods.any { start -> zone.getOffset(start) != zone.getStandardOffset(start) }) {
+                    kind = KIND_DAYLIGHT
+                }
+
+                out.writeShort(ids.indexOf(id))
+                out.writeByte(kind)
+                out.writeShort(periods.size())
+                periods.each { start ->
+                    out.writeLong(start)
+                    out.writeInt(zone.getOffset(start))
+                    out.writeInt(zone.getStandardOffset(start))
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a minimal perfect hash of all ids, so that the library can look up zones
+     * by dense index rather than through a map.  This must hash exactly the same way as
+     * ZoneIndex in the library, which can also build it at runtime.
+     *
+     * Format (all big-endian):
+     *  - short version
+     *  - short id count, then the id in each slot (UTF)
+     *  - for each slot, short slot of its canonical id
+     *  - short bucket count, then int seed for each bucket
+     */
+    void writeZoneIndex(File file, Map<String, DateTimeZone> zones) {
+        List<String> ids = new ArrayList<String>(zones.keySet())
+        Collections.sort(ids)
+        int size = ids.size()
+
+        // Split ids into buckets, then place the biggest buckets first
+        int[] seeds = new int[Math.max(1, (int) (size / 2))]
+        List<List<Integer>> buckets = (0..<seeds.length).collect { new ArrayList<Integer>() }
+        ids.eachWithIndex { id, index ->
+            buckets[hash(id.hashCode(), 0) % seeds.length] << index
+        }
+        List<Integer> order = (0..<seeds.length).toList()
+        Collections.sort(order, { Integer lhs, Integer rhs -> buckets[rhs].size() - buckets[lhs].size() } as Comparator)
+
+        String[] slotIds = new String[size]
+        int[] slots = new int[size]
+        order.each { bucketIndex ->
+            List<Integer> bucket = buckets[bucketIndex]
+            if (!bucket.isEmpty()) {
+                int seed = 1
+                while (!tryPlace(ids, bucket, seed, slotIds, slots)) {
+                    seed++
+                }
+                seeds[bucketIndex] = seed
+            }
+        }
+
+        file.withDataOutputStream { out ->
+            out.writeShort(ZONE_INDEX_VERSION)
+
+            out.writeShort(size)
+            slotIds.each { id -> out.writeUTF(id) }
+            slotIds.each { id ->
+                // UTC is special-cased to DateTimeZone.UTC at runtime, so it's its own zone
+                String canonicalId = id == 'UTC' ? id : zones[id].getID()
+                out.writeShort(slots[ids.indexOf(canonicalId)])
+            }
+
+            out.writeShort(seeds.length)
+            seeds.each { seed -> out.writeInt(seed) }
+        }
+    }
+
+    static boolean tryPlace(List<String> ids, List<Integer> bucket, int seed, String[] slotIds, int[] slots) {
+        for (int a = 0; a < bucket.size(); a++) {
+            int slot = hash(ids[bucket[a]].hashCode(), seed) % slotIds.length
+            if (slotIds[slot] != null) {
+                return false
+            }
+            for (int b = 0; b < a; b++) {
+                if (slots[bucket[b]] == slot) {
+                    return false
+                }
+            }
+            slots[bucket[a]] = slot
+        }
+
+        bucket.each { index -> slotIds[slots[index]] = ids[index] }
+        return true
+    }
+
+    /**
+     * Mixes a seed into a hash code (MurmurHash3's finalizer); same as ZoneIndex.hash()
+     */
+    static int hash(int hashCode, int seed) {
+        int h = hashCode ^ (seed * (int) 0x9E3779B9L)
+        h ^= h >>> 16
+        h *= (int) 0x85EBCA6BL
+        h ^= h >>> 13
+        h *= (int) 0xC2B2AE35L
+        h ^= h >>> 16
+        return h & 0x7FFFFFFF
     }
-}
\ No newline at end of file
+}
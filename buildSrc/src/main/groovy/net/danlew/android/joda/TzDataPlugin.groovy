@@ -61,6 +61,8 @@ class TzDataPlugin implements Plugin<Project> {
 
                 sources = tzFiles
                 outputDir = project.file("$project.buildDir/intermediates/tz/")
+                metadataStartYear = project.tzdata.metadataStartYear ?: readReleaseYear(tzDataDir)
+                metadataEndYear = metadataStartYear + project.tzdata.metadataYears - 1
             }
 
             String resDir = "$project.buildDir/generated/tzdata/"
@@ -100,6 +102,17 @@ class TzDataPlugin implements Plugin<Project> {
         }
     }
 
+    /**
+     * Reads the year the tzdata was released from its version file (e.g. "2015b")
+     */
+    int readReleaseYear(File tzDataDir) {
+        File versionFile = new File(tzDataDir, 'version')
+        if (!versionFile.exists()) {
+            return Calendar.getInstance().get(Calendar.YEAR)
+        }
+        versionFile.text.trim().substring(0, 4) as int
+    }
+
     String renameFile(String region, String city) {
         city = city.toLowerCase().replace('+', 'plus').replace('-', '_')
         if (region) {
@@ -26,4 +26,15 @@ class TzDataPluginExtension {
      */
     File tzDataDir
 
+    /**
+     * The first year of upcoming transitions to include in the zone metadata; defaults to the
+     * year of the tzdata release (from its version file)
+     */
+    Integer metadataStartYear
+
+    /**
+     * How many years of upcoming transitions to include in the zone metadata
+     */
+    int metadataYears = 10
+
 }
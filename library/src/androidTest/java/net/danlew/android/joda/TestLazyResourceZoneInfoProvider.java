@@ -0,0 +1,144 @@
+package net.danlew.android.joda;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.tz.Provider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that a lazy ResourceZoneInfoProvider isn't loaded until it's actually used.
+ *
+ * This is in the library's package, rather than the test package, to check when it loads.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestLazyResourceZoneInfoProvider {
+
+    private Context mContext;
+
+    private Provider mOldProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getInstrumentation().getContext();
+        mOldProvider = DateTimeZone.getProvider();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        DateTimeZone.setProvider(mOldProvider);
+    }
+
+    @Test
+    public void testSetProvider() throws Exception {
+        ResourceZoneInfoProvider provider = new ResourceZoneInfoProvider(mContext, true);
+        final AtomicInteger firstUses = new AtomicInteger();
+        provider.setOnFirstUse(new Runnable() {
+            @Override
+            public void run() {
+                firstUses.incrementAndGet();
+            }
+        });
+
+        // Installing it (which checks its ids and UTC) doesn't load it
+        DateTimeZone.setProvider(provider);
+        assertSame(provider, DateTimeZone.getProvider());
+        assertFalse(provider.isLoaded());
+        assertSame(DateTimeZone.UTC, provider.getZone("UTC"));
+        assertFalse(provider.isLoaded());
+        assertEquals(0, firstUses.get());
+
+        // Using it does
+        assertNotNull(DateTimeZone.forID("Europe/Paris"));
+        assertTrue(provider.isLoaded());
+        assertEquals(1, firstUses.get());
+    }
+
+    @Test
+    public void testRegisterCallbacks() throws Exception {
+        RecordingContext context = new RecordingContext(mContext);
+        ResourceZoneInfoProvider provider = new ResourceZoneInfoProvider(mContext, true);
+        DateTimeZone.setProvider(provider);
+
+        // Timezone and locale changes are watched for right away, since UTC works without loading
+        JodaTimeInitializer.registerCallbacks(context, provider);
+        assertFalse(provider.isLoaded());
+        assertEquals(1, context.mReceivers.size());
+        assertTrue(context.mReceivers.get(0) instanceof TimeZoneChangedReceiver);
+        assertEquals(1, context.mCallbacks.size());
+        assertTrue(context.mCallbacks.get(0) instanceof JodaTimeChanges.ConfigurationWatcher);
+
+        assertSame(DateTimeZone.UTC, DateTimeZone.forID("UTC"));
+        assertFalse(provider.isLoaded());
+
+        // The cache trimmer waits for the first use
+        assertNotNull(DateTimeZone.forID("Europe/Paris"));
+        assertEquals(1, context.mReceivers.size());
+        assertEquals(2, context.mCallbacks.size());
+        assertTrue(context.mCallbacks.get(1) instanceof ZoneCacheTrimmer);
+    }
+
+    @Test
+    public void testAvailableIds() throws Exception {
+        Set<String> expected = new ResourceZoneInfoProvider(mContext).getAvailableIDs();
+        ResourceZoneInfoProvider provider = new ResourceZoneInfoProvider(mContext, true);
+
+        Set<String> ids = provider.getAvailableIDs();
+        assertEquals(expected.size(), ids.size());
+        assertTrue(ids.contains("UTC"));
+        assertFalse(provider.isLoaded());
+
+        // Anything else loads the ids
+        assertTrue(ids.contains("America/New_York"));
+        assertTrue(provider.isLoaded());
+        assertEquals(expected, ids);
+        assertEquals(expected, provider.getAvailableIDs());
+    }
+
+    /**
+     * Records registrations instead of making them.
+     */
+    private static final class RecordingContext extends ContextWrapper {
+
+        final List<BroadcastReceiver> mReceivers = new ArrayList<BroadcastReceiver>();
+
+        final List<ComponentCallbacks> mCallbacks = new ArrayList<ComponentCallbacks>();
+
+        RecordingContext(Context base) {
+            super(base);
+        }
+
+        @Override
+        public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+            mReceivers.add(receiver);
+            return null;
+        }
+
+        @Override
+        public void registerComponentCallbacks(ComponentCallbacks callback) {
+            mCallbacks.add(callback);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package net.danlew.android.joda;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the ZoneIndex generated at build time (by CompileTzDataTask) and the one built
+ * at runtime agree, i.e., that both hash ids the same way.
+ *
+ * This is in the library's package, rather than the test package, since ZoneIndex is internal.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestZoneIndex {
+
+    private ResourceZoneInfoProvider mProvider;
+
+    private ZoneIndex mGenerated;
+
+    private Map<String, String> mZoneInfoMap;
+
+    private ZoneIndex mBuilt;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getContext();
+        mProvider = new ResourceZoneInfoProvider(context);
+        mGenerated = ZoneIndex.read(mProvider.openResource("ZoneIndex"));
+        mZoneInfoMap = ResourceZoneInfoProvider.loadZoneInfoMap(mProvider.openResource("ZoneInfoMap"));
+        mBuilt = ZoneIndex.build(mZoneInfoMap);
+    }
+
+    @Test
+    public void testSameIds() {
+        assertEquals(mZoneInfoMap.size(), mGenerated.size());
+        assertEquals(mZoneInfoMap.size(), mBuilt.size());
+
+        for (String id : mZoneInfoMap.keySet()) {
+            assertIndexed(mGenerated, id);
+            assertIndexed(mBuilt, id);
+        }
+    }
+
+    @Test
+    public void testAvailableIds() {
+        for (String id : mProvider.getAvailableIDs()) {
+            assertIndexed(mGenerated, id);
+            assertIndexed(mBuilt, id);
+
+            // Aliases resolve to the same canonical id either way
+            assertEquals(id,
+                mGenerated.getId(mGenerated.canonicalIndexOf(id)),
+                mBuilt.getId(mBuilt.canonicalIndexOf(id)));
+        }
+    }
+
+    @Test
+    public void testUnknownIds() {
+        for (String id : Arrays.asList("", "Not/A_Zone", "america/new_york", "America/New_York ", "Europe/Londo")) {
+            assertEquals(id, -1, mGenerated.indexOf(id));
+            assertEquals(id, -1, mGenerated.canonicalIndexOf(id));
+            assertEquals(id, -1, mBuilt.indexOf(id));
+            assertEquals(id, -1, mBuilt.canonicalIndexOf(id));
+            assertNull(id, mProvider.getZone(id));
+        }
+    }
+
+    private static void assertIndexed(ZoneIndex index, String id) {
+        int slot = index.indexOf(id);
+        assertTrue(id, slot >= 0 && slot < index.size());
+        assertEquals(id, index.getId(slot));
+    }
+}
@@ -11,29 +11,50 @@ import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.platform.app.InstrumentationRegistry;
 
+import net.danlew.android.joda.Clock;
 import net.danlew.android.joda.DateUtils;
 import net.danlew.android.joda.JodaTimeAndroid;
+import net.danlew.android.joda.NowSnapshot;
+import net.danlew.android.joda.R;
+import net.danlew.android.joda.RelativeTimeFormatter;
+import net.danlew.android.joda.RelativeTimeRefresher;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Days;
 import org.joda.time.Duration;
+import org.joda.time.Hours;
+import org.joda.time.Interval;
 import org.joda.time.LocalDate;
 import org.joda.time.LocalDateTime;
 import org.joda.time.LocalTime;
+import org.joda.time.Minutes;
 import org.joda.time.MonthDay;
+import org.joda.time.ReadableInstant;
+import org.joda.time.Seconds;
+import org.joda.time.Weeks;
 import org.joda.time.YearMonth;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Formatter;
 import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.Locale;
+import java.util.Random;
 import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -259,6 +280,51 @@ public class TestDateUtils {
         }
     }
 
+    @Test
+    public void testFormatDateTimeInOtherZones() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getContext();
+        int flags = DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME | DateUtils.FORMAT_SHOW_YEAR;
+
+        // Instants should be formatted with their own zone's wall time, including around DST changes
+        String[] zones = { "UTC", "Asia/Kolkata", "Australia/Lord_Howe", "America/Sao_Paulo", "Pacific/Apia" };
+        for (String id : zones) {
+            DateTimeZone zone = DateTimeZone.forID(id);
+            DateTime time = mNow.withZone(zone);
+            for (int a = 0; a < 4; a++) {
+                long transition = zone.nextTransition(time.getMillis());
+                time = new DateTime(transition == time.getMillis() ? transition + 1 : transition - 1, zone);
+
+                LocalDateTime localTime = time.toLocalDateTime();
+                assertEquals(DateUtils.formatDateTime(ctx, localTime, flags), DateUtils.formatDateTime(ctx, time, flags));
+                assertEquals(DateUtils.formatDateTime(ctx, localTime.toLocalDate(), DateUtils.FORMAT_SHOW_DATE),
+                    DateUtils.formatDateTime(ctx, time, DateUtils.FORMAT_SHOW_DATE));
+
+                time = time.plusSeconds(2);
+            }
+        }
+    }
+
+    @Test
+    public void testIsTodayAcrossMidnight() {
+        DateTime lastThing = mNow.withTime(23, 59, 59, 999);
+        DateTime firstThing = lastThing.plusMillis(1);
+
+        assertTrue(DateUtils.isToday(lastThing));
+        assertFalse(DateUtils.isToday(firstThing));
+
+        // Today has to move on at midnight, even though it was worked out earlier
+        DateTimeUtils.setCurrentMillisFixed(firstThing.getMillis());
+        assertFalse(DateUtils.isToday(lastThing));
+        assertTrue(DateUtils.isToday(firstThing));
+        assertTrue(DateUtils.isToday(firstThing.toLocalDate()));
+
+        // ...and when the default zone changes
+        DateTimeZone.setDefault(DateTimeZone.forOffsetHours(-12));
+        assertTrue(DateUtils.isToday(lastThing));
+        assertFalse(DateUtils.isToday(firstThing));
+        assertFalse(DateUtils.isToday(firstThing.toLocalDate()));
+    }
+
     @Test
     public void testGetRelativeTimeSpanString() {
         Context ctx = InstrumentationRegistry.getInstrumentation().getContext();
@@ -343,6 +409,392 @@ public class TestDateUtils {
             DateUtils.FORMAT_ABBREV_RELATIVE));
     }
 
+    @Test
+    public void testGetRelativeTimeSpanStringMatchesReference() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getContext();
+
+        // Compare against the original Interval-based implementation, around DST changes and in between
+        Random random = new Random(41);
+        long[] ranges = { 60000, 3600000, 86400000, 8 * 86400000L };
+        int[] flags = { 0, DateUtils.FORMAT_ABBREV_RELATIVE };
+        for (String id : new String[] { "America/New_York", "Europe/London", "Australia/Lord_Howe", "UTC" }) {
+            DateTimeZone zone = DateTimeZone.forID(id);
+            for (int i = 0; i < 500; i++) {
+                long now = mNow.getMillis() + (long) ((random.nextDouble() - .5) * 4 * 365 * 86400000L);
+                if (i % 2 == 0) {
+                    now = zone.nextTransition(now) + random.nextInt(7200000) - 3600000;
+                }
+                DateTimeUtils.setCurrentMillisFixed(now);
+
+                long range = ranges[random.nextInt(ranges.length)];
+                DateTime time = new DateTime(now + (long) ((random.nextDouble() * 2 - 1) * range), zone);
+                int flag = flags[i % flags.length];
+                assertEquals(getRelativeTimeSpanStringReference(ctx, time, flag),
+                    DateUtils.getRelativeTimeSpanString(ctx, time, flag));
+            }
+        }
+    }
+
+    @Test
+    public void testAppendingOverloads() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getContext();
+        StringBuilder sb = new StringBuilder();
+
+        for (int seconds = -10 * 86400; seconds <= 10 * 86400; seconds += 7919) {
+            DateTime time = mNow.plusSeconds(seconds);
+            LocalDateTime localTime = time.toLocalDateTime();
+
+            for (int flags : FORMAT_DATE_RANGE_FLAGS) {
+                sb.setLength(0);
+                assertEquals(DateUtils.formatDateTime(ctx, time, flags),
+                    DateUtils.formatDateTime(ctx, new Formatter(sb), time, flags).toString());
+                sb.setLength(0);
+                assertEquals(DateUtils.formatDateTime(ctx, localTime, flags),
+                    DateUtils.formatDateTime(ctx, new Formatter(sb), localTime, flags).toString());
+                sb.setLength(0);
+                assertEquals(DateUtils.formatDateRange(ctx, mNow, time, flags),
+                    DateUtils.formatDateRange(ctx, new Formatter(sb), mNow, time, flags).toString());
+                sb.setLength(0);
+                assertEquals(DateUtils.formatDateRange(ctx, mNow.toLocalDateTime(), localTime, flags),
+                    DateUtils.formatDateRange(ctx, new Formatter(sb), mNow.toLocalDateTime(), localTime, flags)
+                        .toString());
+            }
+
+            // Appends, rather than replacing what's there
+            sb.setLength(0);
+            sb.append("> ");
+            assertEquals("> " + DateUtils.getRelativeTimeSpanString(ctx, time, DateUtils.FORMAT_ABBREV_RELATIVE),
+                DateUtils.getRelativeTimeSpanString(ctx, sb, time, DateUtils.FORMAT_ABBREV_RELATIVE).toString());
+            sb.setLength(0);
+            assertEquals(DateUtils.getRelativeTimeSpanString(ctx, localTime, 0).toString(),
+                DateUtils.getRelativeTimeSpanString(ctx, sb, localTime, 0).toString());
+            sb.setLength(0);
+            sb.append("> ");
+            assertEquals("> " + DateUtils.getRelativeDateTimeString(ctx, time, Weeks.ONE, 0),
+                DateUtils.getRelativeDateTimeString(ctx, sb, time, Weeks.ONE, 0).toString());
+            sb.setLength(0);
+            assertEquals(DateUtils.getRelativeDateTimeString(ctx, localTime, null, 0).toString(),
+                DateUtils.getRelativeDateTimeString(ctx, sb, localTime, null, 0).toString());
+            sb.setLength(0);
+            sb.append("> ");
+            assertEquals("> " + DateUtils.formatDuration(ctx, Duration.standardSeconds(seconds)),
+                DateUtils.formatDuration(ctx, sb, Duration.standardSeconds(seconds)).toString());
+        }
+    }
+
+    @Test
+    public void testClockAndNowSnapshot() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getContext();
+        final DateTime clockTime = mNow.plusHours(3);
+
+        try {
+            DateUtils.setClock(new Clock() {
+                @Override
+                public long getMillis() {
+                    return clockTime.getMillis();
+                }
+            });
+            assertEquals("3 hours ago", DateUtils.getRelativeTimeSpanString(ctx, mNow));
+            assertEquals("in 1 hour", DateUtils.getRelativeTimeSpanString(ctx, LocalTime.now().plusHours(4)));
+
+            NowSnapshot snapshot = NowSnapshot.begin();
+            try {
+                assertEquals(clockTime.getMillis(), snapshot.getMillis());
+                assertEquals(mDefaultJodaTz, snapshot.getZone());
+                assertEquals("3 hours ago", DateUtils.getRelativeTimeSpanString(ctx, mNow));
+
+                NowSnapshot nested = NowSnapshot.begin(mNow.plusDays(1).getMillis());
+                try {
+                    assertEquals("yesterday", DateUtils.getRelativeTimeSpanString(ctx, mNow));
+                    assertFalse(DateUtils.isToday(mNow));
+
+                    try {
+                        snapshot.close();
+                        fail("Closing a snapshot before the one nested in it should have thrown an exception");
+                    }
+                    catch (IllegalStateException e) {
+
+                    }
+                }
+                finally {
+                    nested.close();
+                }
+
+                assertEquals("3 hours ago", DateUtils.getRelativeTimeSpanString(ctx, mNow));
+            }
+            finally {
+                snapshot.close();
+            }
+
+            // Closing twice does nothing
+            snapshot.close();
+        }
+        finally {
+            DateUtils.setClock(null);
+        }
+
+        assertEquals(Clock.SYSTEM, DateUtils.getClock());
+        assertEquals("0 seconds ago", DateUtils.getRelativeTimeSpanString(ctx, mNow));
+    }
+
+    @Test
+    public void testNextChange() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getContext();
+        DateTime flooredNow = mNow.withMillisOfSecond(0);
+
+        assertEquals(flooredNow.plusSeconds(1).getMillis(),
+            DateUtils.getRelativeTimeSpanStringNextChange(mNow.minusSeconds(5), 0));
+        assertEquals(flooredNow.plusMinutes(1).getMillis(),
+            DateUtils.getRelativeTimeSpanStringNextChange(mNow.minusMinutes(5), 0));
+        assertEquals(flooredNow.plusSeconds(1).getMillis(),
+            DateUtils.getRelativeTimeSpanStringNextChange(mNow.plusHours(3), 0));
+        assertEquals(Long.MAX_VALUE, DateUtils.getRelativeTimeSpanStringNextChange(mNow.minusWeeks(2),
+            DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_YEAR));
+
+        // The text should stay the same right up until the change, and then be different
+        for (int seconds = -10 * 86400; seconds <= 10 * 86400; seconds += 6007) {
+            DateTime time = mNow.plusSeconds(seconds);
+
+            DateTimeUtils.setCurrentMillisFixed(mNow.getMillis());
+            CharSequence text = DateUtils.getRelativeTimeSpanString(ctx, time, 0);
+            long next = DateUtils.getRelativeTimeSpanStringNextChange(time, 0);
+            if (next != Long.MAX_VALUE) {
+                DateTimeUtils.setCurrentMillisFixed(next - 1);
+                assertEquals(text, DateUtils.getRelativeTimeSpanString(ctx, time, 0));
+                DateTimeUtils.setCurrentMillisFixed(next);
+                assertFalse(text.equals(DateUtils.getRelativeTimeSpanString(ctx, time, 0)));
+            }
+
+            DateTimeUtils.setCurrentMillisFixed(mNow.getMillis());
+            text = DateUtils.getRelativeDateTimeString(ctx, time, Weeks.ONE, 0);
+            next = DateUtils.getRelativeDateTimeStringNextChange(time, Weeks.ONE, 0);
+            if (next != Long.MAX_VALUE) {
+                DateTimeUtils.setCurrentMillisFixed(next - 1);
+                assertEquals(text, DateUtils.getRelativeDateTimeString(ctx, time, Weeks.ONE, 0));
+            }
+        }
+    }
+
+    @Test
+    public void testRelativeTimeRefresher() throws InterruptedException {
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        final AtomicReference<CharSequence> refreshedText = new AtomicReference<CharSequence>();
+        final AtomicInteger neverRefreshed = new AtomicInteger();
+        final RelativeTimeRefresher refresher = new RelativeTimeRefresher();
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                refresher.register(new RelativeTimeRefresher.Callback() {
+                    @Override
+                    public void onRefresh(ReadableInstant time) {
+                        refreshedText.set(DateUtils.getRelativeTimeSpanString(
+                            InstrumentationRegistry.getInstrumentation().getContext(), time, 0));
+                        refreshed.countDown();
+                    }
+                }, mNow.minusSeconds(5), 0);
+
+                refresher.register(new RelativeTimeRefresher.Callback() {
+                    @Override
+                    public void onRefresh(ReadableInstant time) {
+                        neverRefreshed.incrementAndGet();
+                    }
+                }, mNow.minusWeeks(4), DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_YEAR);
+
+                refresher.start();
+            }
+        });
+
+        try {
+            DateTimeUtils.setCurrentMillisFixed(mNow.plusSeconds(2).getMillis());
+            assertTrue(refreshed.await(10, TimeUnit.SECONDS));
+            assertEquals("7 seconds ago", refreshedText.get().toString());
+            assertEquals(0, neverRefreshed.get());
+        }
+        finally {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    refresher.stop();
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testRelativeTimeFormatter() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getContext();
+        RelativeTimeFormatter formatter = new RelativeTimeFormatter(ctx);
+
+        assertRelativeTimeFormatterMatches(ctx, formatter);
+
+        // Switching locales should throw away the cached strings
+        Resources res = ctx.getResources();
+        Configuration config = res.getConfiguration();
+        Locale oldLocale = config.locale;
+        try {
+            config.locale = Locale.GERMANY;
+            res.updateConfiguration(config, res.getDisplayMetrics());
+            assertRelativeTimeFormatterMatches(ctx, formatter);
+        }
+        finally {
+            config.locale = oldLocale;
+            res.updateConfiguration(config, res.getDisplayMetrics());
+        }
+        assertRelativeTimeFormatterMatches(ctx, formatter);
+    }
+
+    @Test
+    public void testRelativeTimeFormatterBatch() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getContext();
+        RelativeTimeFormatter formatter = new RelativeTimeFormatter(ctx);
+
+        long[] times = new long[500];
+        List<DateTime> dateTimes = new ArrayList<DateTime>();
+        for (int i = 0; i < times.length; i++) {
+            DateTime time = mNow.plusSeconds((i - times.length / 2) * 3943);
+            times[i] = time.getMillis();
+            dateTimes.add(time);
+        }
+
+        CharSequence[] strings = formatter.getRelativeTimeSpanStrings(times, mDefaultJodaTz,
+            DateUtils.FORMAT_ABBREV_RELATIVE);
+        CharSequence[] out = new CharSequence[times.length + 1];
+        formatter.getRelativeTimeSpanStrings(times, mDefaultJodaTz, DateUtils.FORMAT_ABBREV_RELATIVE, out);
+        CharSequence[] fromList = formatter.getRelativeTimeSpanStrings(dateTimes, DateUtils.FORMAT_ABBREV_RELATIVE);
+        for (int i = 0; i < times.length; i++) {
+            CharSequence expected = DateUtils.getRelativeTimeSpanString(ctx, dateTimes.get(i),
+                DateUtils.FORMAT_ABBREV_RELATIVE);
+            assertEquals(expected, strings[i]);
+            assertEquals(expected, out[i]);
+            assertEquals(expected, fromList[i]);
+        }
+
+        try {
+            formatter.getRelativeTimeSpanStrings(times, mDefaultJodaTz, 0, new CharSequence[1]);
+            fail("Expected an IllegalArgumentException for a short output array");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private void assertRelativeTimeFormatterMatches(Context ctx, RelativeTimeFormatter formatter) {
+        // Twice, so that the second time comes from the cache
+        for (int i = 0; i < 2; i++) {
+            for (int seconds = -8 * 86400; seconds <= 8 * 86400; seconds += 997) {
+                DateTime time = mNow.plusSeconds(seconds);
+                assertEquals(DateUtils.getRelativeTimeSpanString(ctx, time),
+                    formatter.getRelativeTimeSpanString(time));
+                assertEquals(DateUtils.getRelativeTimeSpanString(ctx, time, DateUtils.FORMAT_ABBREV_RELATIVE),
+                    formatter.getRelativeTimeSpanString(time, DateUtils.FORMAT_ABBREV_RELATIVE));
+                assertEquals(DateUtils.getRelativeDateTimeString(ctx, time, Weeks.ONE, 0),
+                    formatter.getRelativeDateTimeString(time, Weeks.ONE, 0));
+                assertEquals(DateUtils.formatDuration(ctx, Duration.standardSeconds(seconds)),
+                    formatter.formatDuration(Duration.standardSeconds(seconds)));
+            }
+
+            for (int seconds = 0; seconds < 120; seconds++) {
+                assertEquals(DateUtils.formatDuration(ctx, Duration.standardSeconds(seconds)),
+                    formatter.formatDuration(Duration.standardSeconds(seconds)));
+            }
+        }
+
+        assertEquals(DateUtils.getRelativeTimeSpanString(ctx, LocalTime.now().minusMinutes(30)),
+            formatter.getRelativeTimeSpanString(LocalTime.now().minusMinutes(30)));
+        assertEquals(DateUtils.getRelativeTimeSpanString(ctx, LocalDate.now().plusDays(3), true),
+            formatter.getRelativeTimeSpanString(LocalDate.now().plusDays(3), true));
+        assertEquals(DateUtils.getRelativeDateTimeString(ctx, LocalDateTime.now().minusHours(3), null, 0),
+            formatter.getRelativeDateTimeString(LocalDateTime.now().minusHours(3), null, 0));
+    }
+
+    @Test
+    public void testGetRelativeTimeSpanStringAllLocales() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getContext();
+        Resources res = ctx.getResources();
+        Configuration config = res.getConfiguration();
+        Locale oldLocale = config.locale;
+
+        // Every count of every unit, in every locale (including those with their own digits)
+        int[] units = { 1, 60, 3600, 86400 };
+        try {
+            for (String localeName : res.getAssets().getLocales()) {
+                String[] parts = localeName.split("[-_]");
+                Locale locale = parts.length > 1 ? new Locale(parts[0], parts[1]) : new Locale(parts[0]);
+                Locale.setDefault(locale);
+                config.locale = locale;
+                res.updateConfiguration(config, res.getDisplayMetrics());
+
+                for (int unit : units) {
+                    // Past a week is formatted as a date, which isn't what this is testing
+                    int maxCount = unit == 86400 ? 8 : 60;
+                    for (int count = 0; count < maxCount; count++) {
+                        for (int sign = -1; sign <= 1; sign += 2) {
+                            DateTime time = mNow.plusSeconds(sign * unit * count);
+                            for (int flags = 0; flags <= DateUtils.FORMAT_ABBREV_RELATIVE;
+                                 flags += DateUtils.FORMAT_ABBREV_RELATIVE) {
+                                assertEquals(localeName,
+                                    getRelativeTimeSpanStringReference(ctx, time, flags).toString(),
+                                    DateUtils.getRelativeTimeSpanString(ctx, time, flags).toString());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            Locale.setDefault(Locale.US);
+            config.locale = oldLocale;
+            res.updateConfiguration(config, res.getDisplayMetrics());
+        }
+    }
+
+    private static CharSequence getRelativeTimeSpanStringReference(Context context, ReadableInstant time, int flags) {
+        boolean abbrevRelative = (flags & (DateUtils.FORMAT_ABBREV_RELATIVE | DateUtils.FORMAT_ABBREV_ALL)) != 0;
+
+        DateTime now = DateTime.now(time.getZone()).withMillisOfSecond(0);
+        DateTime timeDt = new DateTime(time).withMillisOfSecond(0);
+        boolean past = !now.isBefore(timeDt);
+        Interval interval = past ? new Interval(timeDt, now) : new Interval(now, timeDt);
+
+        int resId;
+        long count;
+        if (Minutes.minutesIn(interval).isLessThan(Minutes.ONE)) {
+            count = Seconds.secondsIn(interval).getSeconds();
+            resId = past ? (abbrevRelative ? R.plurals.joda_time_android_abbrev_num_seconds_ago
+                : R.plurals.joda_time_android_num_seconds_ago)
+                : (abbrevRelative ? R.plurals.joda_time_android_abbrev_in_num_seconds
+                : R.plurals.joda_time_android_in_num_seconds);
+        }
+        else if (Hours.hoursIn(interval).isLessThan(Hours.ONE)) {
+            count = Minutes.minutesIn(interval).getMinutes();
+            resId = past ? (abbrevRelative ? R.plurals.joda_time_android_abbrev_num_minutes_ago
+                : R.plurals.joda_time_android_num_minutes_ago)
+                : (abbrevRelative ? R.plurals.joda_time_android_abbrev_in_num_minutes
+                : R.plurals.joda_time_android_in_num_minutes);
+        }
+        else if (Days.daysIn(interval).isLessThan(Days.ONE)) {
+            count = Hours.hoursIn(interval).getHours();
+            resId = past ? (abbrevRelative ? R.plurals.joda_time_android_abbrev_num_hours_ago
+                : R.plurals.joda_time_android_num_hours_ago)
+                : (abbrevRelative ? R.plurals.joda_time_android_abbrev_in_num_hours
+                : R.plurals.joda_time_android_in_num_hours);
+        }
+        else if (Weeks.weeksIn(interval).isLessThan(Weeks.ONE)) {
+            count = Days.daysIn(interval).getDays();
+            resId = past ? (abbrevRelative ? R.plurals.joda_time_android_abbrev_num_days_ago
+                : R.plurals.joda_time_android_num_days_ago)
+                : (abbrevRelative ? R.plurals.joda_time_android_abbrev_in_num_days
+                : R.plurals.joda_time_android_in_num_days);
+        }
+        else {
+            return DateUtils.formatDateRange(context, time, time, flags);
+        }
+
+        String format = context.getResources().getQuantityString(resId, (int) count);
+        return String.format(format, count);
+    }
+
     @Test
     public void testGetRelativeTimeSpanStringWithPreposition() {
         Context ctx = InstrumentationRegistry.getInstrumentation().getContext();
@@ -0,0 +1,829 @@
+package net.danlew.android.joda.test;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.Intent;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.danlew.android.joda.JodaTimeChanges;
+import net.danlew.android.joda.ResourceZoneInfoProvider;
+import net.danlew.android.joda.TimeZoneChangedReceiver;
+import net.danlew.android.joda.TimeZoneConverter;
+import net.danlew.android.joda.ZoneLoadMonitor;
+import net.danlew.android.joda.ZoneLoader;
+import net.danlew.android.joda.ZoneMetadata;
+import net.danlew.android.joda.ZoneOffsets;
+import net.danlew.android.joda.ZoneTransitionCursor;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the Android-specific parts of ResourceZoneInfoProvider (caching, trimming, etc.)
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestResourceZoneInfoProvider {
+
+    private Context mContext;
+
+    private ResourceZoneInfoProvider mProvider;
+
+    private DateTimeZone mOldDefault;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getInstrumentation().getContext();
+        mProvider = new ResourceZoneInfoProvider(mContext);
+        DateTimeZone.setProvider(mProvider);
+
+        mOldDefault = DateTimeZone.getDefault();
+        DateTimeZone.setDefault(DateTimeZone.forID("America/New_York"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        DateTimeZone.setDefault(mOldDefault);
+    }
+
+    @Test
+    public void testTrimMemoryKeepsDefaultZone() {
+        DateTimeZone defaultZone = mProvider.getZone("America/New_York");
+        DateTimeZone paris = mProvider.getZone("Europe/Paris");
+
+        mProvider.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+
+        assertSame(defaultZone, mProvider.getZone("America/New_York"));
+        assertSame(DateTimeZone.UTC, mProvider.getZone("UTC"));
+
+        // Trimmed zones get reloaded, and are equivalent to what they were before
+        DateTimeZone reloadedParis = mProvider.getZone("Europe/Paris");
+        assertNotSame(paris, reloadedParis);
+        assertEquals(paris, reloadedParis);
+    }
+
+    @Test
+    public void testTrimMemoryKeepsRecentZones() {
+        DateTimeZone paris = mProvider.getZone("Europe/Paris");
+        DateTimeZone london = mProvider.getZone("Europe/London");
+        DateTimeZone tokyo = mProvider.getZone("Asia/Tokyo");
+
+        mProvider.getZone("Europe/London");
+        mProvider.getZone("Asia/Tokyo");
+
+        mProvider.trimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+
+        assertSame(london, mProvider.getZone("Europe/London"));
+        assertSame(tokyo, mProvider.getZone("Asia/Tokyo"));
+        assertNotSame(paris, mProvider.getZone("Europe/Paris"));
+    }
+
+    @Test
+    public void testTrimMemoryIgnoresLowLevels() {
+        DateTimeZone paris = mProvider.getZone("Europe/Paris");
+
+        mProvider.trimMemory(0);
+
+        assertSame(paris, mProvider.getZone("Europe/Paris"));
+    }
+
+    @Test
+    public void testRestoreTrimmedZones() {
+        mProvider.getZone("Europe/Paris");
+
+        mProvider.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        mProvider.restoreTrimmedZones();
+
+        // Restoring loads the zone again, so subsequent lookups are cache hits
+        DateTimeZone paris = mProvider.getZone("Europe/Paris");
+        assertSame(paris, mProvider.getZone("Europe/Paris"));
+    }
+
+    @Test
+    public void testForIDAsync() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final CountDownLatch latch = new CountDownLatch(2);
+            final AtomicReference<DateTimeZone> result1 = new AtomicReference<DateTimeZone>();
+            final AtomicReference<DateTimeZone> result2 = new AtomicReference<DateTimeZone>();
+
+            Future<DateTimeZone> future1 = ZoneLoader.forIDAsync("Asia/Kolkata", executor, new ZoneLoader.Callback() {
+                @Override
+                public void onZoneLoaded(String id, DateTimeZone zone) {
+                    result1.set(zone);
+                    latch.countDown();
+                }
+            });
+            Future<DateTimeZone> future2 = ZoneLoader.forIDAsync("Asia/Kolkata", executor, new ZoneLoader.Callback() {
+                @Override
+                public void onZoneLoaded(String id, DateTimeZone zone) {
+                    result2.set(zone);
+                    latch.countDown();
+                }
+            });
+
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertEquals("Asia/Kolkata", result1.get().getID());
+            assertSame(result1.get(), result2.get());
+            assertSame(result1.get(), future1.get());
+            assertSame(result1.get(), future2.get());
+            assertSame(result1.get(), DateTimeZone.forID("Asia/Kolkata"));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testForIDAsyncUnknownId() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final CountDownLatch latch = new CountDownLatch(1);
+            final AtomicReference<DateTimeZone> result = new AtomicReference<DateTimeZone>(DateTimeZone.UTC);
+
+            Future<DateTimeZone> future = ZoneLoader.forIDAsync("Not/AZone", executor, new ZoneLoader.Callback() {
+                @Override
+                public void onZoneLoaded(String id, DateTimeZone zone) {
+                    result.set(zone);
+                    latch.countDown();
+                }
+            });
+
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertNull(result.get());
+
+            try {
+                future.get();
+                fail();
+            }
+            catch (ExecutionException e) {
+                // Expected
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testForIDAsyncRejected() throws Exception {
+        ExecutorService rejecting = Executors.newSingleThreadExecutor();
+        rejecting.shutdown();
+
+        final AtomicReference<DateTimeZone> result = new AtomicReference<DateTimeZone>(DateTimeZone.UTC);
+        Future<DateTimeZone> future = ZoneLoader.forIDAsync("Asia/Kathmandu", rejecting, new ZoneLoader.Callback() {
+            @Override
+            public void onZoneLoaded(String id, DateTimeZone zone) {
+                result.set(zone);
+            }
+        });
+
+        assertTrue(future.isDone());
+        assertNull(result.get());
+        try {
+            future.get();
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        // Later lookups aren't stuck waiting on the rejected one
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            DateTimeZone kathmandu = ZoneLoader.forIDAsync("Asia/Kathmandu", executor, null).get(10, TimeUnit.SECONDS);
+            assertEquals("Asia/Kathmandu", kathmandu.getID());
+
+            // Already loaded, so the Future is done right away
+            Future<DateTimeZone> loaded = ZoneLoader.forIDAsync("Asia/Kathmandu", rejecting, null);
+            assertTrue(loaded.isDone());
+            assertSame(kathmandu, loaded.get());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testGetZones() {
+        Map<String, DateTimeZone> zones = mProvider.getZones(Arrays.asList(
+            "Europe/Berlin", "US/Pacific", "America/Los_Angeles", "Not/AZone", "Asia/Tokyo", "UTC"));
+
+        assertEquals(Arrays.asList("Europe/Berlin", "US/Pacific", "America/Los_Angeles", "Asia/Tokyo", "UTC"),
+            Arrays.asList(zones.keySet().toArray()));
+        assertSame(zones.get("US/Pacific"), zones.get("America/Los_Angeles"));
+        assertSame(DateTimeZone.UTC, zones.get("UTC"));
+
+        for (Map.Entry<String, DateTimeZone> entry : zones.entrySet()) {
+            assertSame(entry.getValue(), mProvider.getZone(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testGetZonesLoadsEachZoneOnce() throws Exception {
+        final List<String> ids = Arrays.asList("Europe/Vienna", "Asia/Seoul", "America/Denver", "Africa/Lagos");
+        final Map<String, AtomicInteger> loads = new ConcurrentHashMap<String, AtomicInteger>();
+        ZoneLoadMonitor.setListener(new ZoneLoadMonitor.Listener() {
+            @Override
+            public void onZoneLoaded(ZoneLoadMonitor.ZoneLoad load) {
+                AtomicInteger count = loads.get(load.getId());
+                if (count != null) {
+                    count.incrementAndGet();
+                }
+            }
+        }, false);
+
+        ExecutorService executor = Executors.newFixedThreadPool(ids.size() + 1);
+        try {
+            for (int round = 0; round < 10; round++) {
+                final ResourceZoneInfoProvider provider = new ResourceZoneInfoProvider(mContext);
+                for (String id : ids) {
+                    loads.put(id, new AtomicInteger());
+                }
+
+                // Bulk and single loads of the same zones at once
+                final CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> futures = new ArrayList<Future<?>>();
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        start.await();
+                        return provider.getZones(ids);
+                    }
+                }));
+                for (final String id : ids) {
+                    futures.add(executor.submit(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            start.await();
+                            return provider.getZone(id);
+                        }
+                    }));
+                }
+
+                start.countDown();
+                for (Future<?> future : futures) {
+                    future.get(10, TimeUnit.SECONDS);
+                }
+
+                // Each zone is read (and reported) exactly once, under its own id
+                for (String id : ids) {
+                    assertEquals(id, 1, loads.get(id).get());
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+            ZoneLoadMonitor.setListener(null);
+        }
+    }
+
+    @Test
+    public void testGetZonesParallel() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Map<String, DateTimeZone> zones = ZoneLoader.forIDs(Arrays.asList(
+                "Africa/Cairo", "America/Sao_Paulo", "Australia/Sydney", "Pacific/Auckland", "+05:30"), executor);
+
+            assertEquals(5, zones.size());
+            assertEquals(DateTimeZone.forOffsetHoursMinutes(5, 30), zones.get("+05:30"));
+            assertSame(zones.get("Australia/Sydney"), DateTimeZone.forID("Australia/Sydney"));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testZoneLoadMonitor() {
+        final List<ZoneLoadMonitor.ZoneLoad> loads = new ArrayList<ZoneLoadMonitor.ZoneLoad>();
+        ZoneLoadMonitor.setListener(new ZoneLoadMonitor.Listener() {
+            @Override
+            public void onZoneLoaded(ZoneLoadMonitor.ZoneLoad load) {
+                loads.add(load);
+            }
+        }, false);
+
+        try {
+            DateTimeZone madrid = mProvider.getZone("Europe/Madrid");
+
+            assertEquals(1, loads.size());
+            ZoneLoadMonitor.ZoneLoad load = loads.get(0);
+            assertEquals("Europe/Madrid", load.getId());
+            assertEquals(Thread.currentThread().getName(), load.getThreadName());
+            assertFalse(load.isMainThread());
+            assertTrue(load.getDurationNanos() >= 0);
+
+            // Cached, so no more loads
+            assertSame(madrid, mProvider.getZone("Europe/Madrid"));
+            assertEquals(1, loads.size());
+        }
+        finally {
+            ZoneLoadMonitor.setListener(null);
+        }
+    }
+
+    @Test
+    public void testFixedOffsetZonesAreNotLoaded() {
+        final StringBuilder loads = new StringBuilder();
+        ZoneLoadMonitor.setListener(new ZoneLoadMonitor.Listener() {
+            @Override
+            public void onZoneLoaded(ZoneLoadMonitor.ZoneLoad load) {
+                loads.append(load.getId());
+            }
+        }, false);
+
+        try {
+            DateTimeZone gmtPlus5 = mProvider.getZone("Etc/GMT+5");
+            assertEquals("Etc/GMT+5", gmtPlus5.getID());
+            assertTrue(gmtPlus5.isFixed());
+            assertEquals(-5 * DateTimeConstants.MILLIS_PER_HOUR, gmtPlus5.getOffset(0));
+
+            DateTimeZone gmtMinus14 = mProvider.getZone("Etc/GMT-14");
+            assertEquals("Etc/GMT-14", gmtMinus14.getID());
+            assertEquals(14 * DateTimeConstants.MILLIS_PER_HOUR, gmtMinus14.getOffset(0));
+
+            DateTimeZone uct = mProvider.getZone("Etc/UCT");
+            assertEquals("Etc/UTC", uct.getID());
+            assertEquals("UTC", uct.getNameKey(0));
+            assertEquals(0, uct.getOffset(0));
+
+            DateTimeZone gmt0 = mProvider.getZone("GMT0");
+            assertEquals("Etc/GMT", gmt0.getID());
+            assertEquals("GMT", gmt0.getNameKey(0));
+
+            assertEquals("", loads.toString());
+        }
+        finally {
+            ZoneLoadMonitor.setListener(null);
+        }
+    }
+
+    @Test
+    public void testOffsetTables() throws Exception {
+        ResourceZoneInfoProvider plainProvider = new ResourceZoneInfoProvider(mContext);
+        mProvider.enableOffsetTables(2000, 2040, Collections.singletonList("Australia/Sydney"));
+
+        // Only the zones asked for get tables
+        DateTimeZone sydney = mProvider.getZone("Australia/Sydney");
+        DateTimeZone paris = mProvider.getZone("Europe/Paris");
+        assertZoneClass("OffsetTableDateTimeZone", sydney);
+        assertFalse(paris.getClass().getSimpleName().equals("OffsetTableDateTimeZone"));
+
+        // Same results inside and outside the table's window
+        DateTimeZone plainSydney = plainProvider.getZone("Australia/Sydney");
+        assertOffsetsEqual(plainSydney, sydney);
+        assertOffsetsEqual(plainProvider.getZone("Europe/Paris"), paris);
+
+        // Tables are only equal to tables of an equal zone, whichever way they're compared
+        assertFalse(sydney.equals(plainSydney));
+        assertFalse(plainSydney.equals(sydney));
+        ResourceZoneInfoProvider otherProvider = new ResourceZoneInfoProvider(mContext);
+        otherProvider.enableOffsetTables(2010, 2020, Collections.singletonList("Australia/Sydney"));
+        DateTimeZone otherSydney = otherProvider.getZone("Australia/Sydney");
+        assertZoneClass("OffsetTableDateTimeZone", otherSydney);
+        assertEquals(sydney, otherSydney);
+        assertEquals(otherSydney, sydney);
+        assertEquals(sydney.hashCode(), otherSydney.hashCode());
+
+        // Zones that had tables keep them when they're reloaded, even after disabling tables
+        mProvider.disableOffsetTables();
+        mProvider.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        DateTimeZone reloadedSydney = mProvider.getZone("Australia/Sydney");
+        assertNotSame(sydney, reloadedSydney);
+        assertZoneClass("OffsetTableDateTimeZone", reloadedSydney);
+        assertEquals(sydney, reloadedSydney);
+        assertEquals(reloadedSydney, sydney);
+        assertEquals(sydney.hashCode(), reloadedSydney.hashCode());
+        assertEquals(new DateTime(0, sydney), new DateTime(0, reloadedSydney));
+
+        // ...while zones that never had them don't get them
+        assertZoneClass(paris.getClass().getSimpleName(), mProvider.getZone("Europe/Paris"));
+        assertFalse(mProvider.getZone("Europe/Oslo").getClass().getSimpleName().equals("OffsetTableDateTimeZone"));
+    }
+
+    @Test
+    public void testSharedTransitionStore() throws Exception {
+        ResourceZoneInfoProvider plainProvider = new ResourceZoneInfoProvider(mContext);
+        mProvider.enableSharedTransitionStore(2000, 2040);
+
+        for (String id : Arrays.asList("Europe/London", "America/Santiago", "Asia/Gaza", "Pacific/Chatham")) {
+            DateTimeZone packed = mProvider.getZone(id);
+            assertZoneClass("PackedDateTimeZone", packed);
+            assertOffsetsEqual(plainProvider.getZone(id), packed);
+
+            // Reloading the zone after a trim gives an equal zone
+            mProvider.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            assertEquals(packed, mProvider.getZone(id));
+        }
+    }
+
+    @Test
+    public void testSharedTransitionStoreReenabled() throws Exception {
+        mProvider.enableSharedTransitionStore(2000, 2040);
+        DateTimeZone london = mProvider.getZone("Europe/London");
+        DateTimeZone santiago = mProvider.getZone("America/Santiago");
+        assertZoneClass("PackedDateTimeZone", london);
+        DateTime summer = new DateTime(2020, 6, 1, 12, 0, london);
+
+        // Enabling the same years again keeps the same store
+        mProvider.enableSharedTransitionStore(2000, 2040);
+        mProvider.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertSame(london, mProvider.getZone("Europe/London"));
+
+        // Zones that were packed stay packed after disabling the store...
+        mProvider.disableSharedTransitionStore();
+        mProvider.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(london, mProvider.getZone("Europe/London"));
+        assertEquals(mProvider.getZone("Europe/London"), london);
+        assertEquals(summer, new DateTime(2020, 6, 1, 12, 0, mProvider.getZone("Europe/London")));
+        assertFalse(mProvider.getZone("Europe/Oslo").getClass().getSimpleName().equals("PackedDateTimeZone"));
+
+        // ...or enabling it with different years
+        mProvider.enableSharedTransitionStore(2010, 2030);
+        mProvider.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        DateTimeZone reloaded = mProvider.getZone("Europe/London");
+        assertEquals(london, reloaded);
+        assertEquals(reloaded, london);
+        assertEquals(london.hashCode(), reloaded.hashCode());
+        assertEquals(summer, new DateTime(2020, 6, 1, 12, 0, reloaded));
+        assertEquals(santiago, mProvider.getZone("America/Santiago"));
+        assertFalse(reloaded.equals(santiago));
+
+        // Zones loaded for the first time go into the new store
+        assertZoneClass("PackedDateTimeZone", mProvider.getZone("Asia/Gaza"));
+
+        // Zones packed into different stores with the same years are equal too
+        ResourceZoneInfoProvider otherProvider = new ResourceZoneInfoProvider(mContext);
+        otherProvider.enableSharedTransitionStore(2000, 2040);
+        DateTimeZone otherLondon = otherProvider.getZone("Europe/London");
+        assertZoneClass("PackedDateTimeZone", otherLondon);
+        assertNotSame(london, otherLondon);
+        assertEquals(london, otherLondon);
+        assertEquals(otherLondon, london);
+        assertEquals(london.hashCode(), otherLondon.hashCode());
+    }
+
+    @Test
+    public void testZoneOffsets() {
+        Random random = new Random(42);
+        long start = new DateTime(1995, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+        long end = new DateTime(2045, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+
+        // Sorted (every 30 minutes, so every transition gets hit) and unsorted input
+        long[] sorted = new long[(int) ((end - start) / (30 * DateTimeConstants.MILLIS_PER_MINUTE))];
+        for (int a = 0; a < sorted.length; a++) {
+            sorted[a] = start + a * 30L * DateTimeConstants.MILLIS_PER_MINUTE;
+        }
+        long[] unsorted = new long[10000];
+        for (int a = 0; a < unsorted.length; a++) {
+            unsorted[a] = start + (long) (random.nextDouble() * (end - start));
+        }
+
+        for (String id : Arrays.asList("America/New_York", "Australia/Lord_Howe", "Asia/Kolkata", "Etc/GMT-3")) {
+            DateTimeZone zone = mProvider.getZone(id);
+            for (long[] instants : Arrays.asList(sorted, unsorted)) {
+                int[] offsets = new int[instants.length];
+                long[] localMillis = new long[instants.length];
+                long[] converted = new long[instants.length];
+
+                ZoneOffsets.getOffsets(zone, instants, offsets);
+                ZoneOffsets.toLocalMillis(zone, instants, localMillis);
+                ZoneOffsets.convertLocalToUTC(zone, instants, false, converted);
+
+                for (int a = 0; a < instants.length; a++) {
+                    assertEquals(zone.getOffset(instants[a]), offsets[a]);
+                    assertEquals(instants[a] + zone.getOffset(instants[a]), localMillis[a]);
+                    assertEquals(zone.convertLocalToUTC(instants[a], false), converted[a]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testZoneTransitionCursor() {
+        DateTimeZone zone = mProvider.getZone("Europe/London");
+        long start = new DateTime(2020, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+        long end = new DateTime(2022, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+
+        ZoneTransitionCursor cursor = new ZoneTransitionCursor();
+        cursor.reset(zone, start, end);
+
+        assertTrue(cursor.next());
+        assertEquals(new DateTime(2020, 3, 29, 1, 0, DateTimeZone.UTC).getMillis(), cursor.getInstant());
+        assertEquals(0, cursor.getOffsetBefore());
+        assertEquals(DateTimeConstants.MILLIS_PER_HOUR, cursor.getOffsetAfter());
+        assertEquals(0, cursor.getStandardOffsetAfter());
+        assertFalse(cursor.isDaylightBefore());
+        assertTrue(cursor.isDaylightAfter());
+
+        assertTrue(cursor.next());
+        assertEquals(new DateTime(2020, 10, 25, 1, 0, DateTimeZone.UTC).getMillis(), cursor.getInstant());
+        assertTrue(cursor.isDaylightBefore());
+        assertFalse(cursor.isDaylightAfter());
+
+        assertTrue(cursor.next());
+        assertTrue(cursor.next());
+        assertFalse(cursor.next());
+        assertFalse(cursor.next());
+
+        // Same results as a nextTransition() loop, and a transition right at the start is included
+        long transition = new DateTime(2020, 3, 29, 1, 0, DateTimeZone.UTC).getMillis();
+        cursor.reset(zone, transition, end);
+        long instant = transition - 1;
+        while (cursor.next()) {
+            instant = zone.nextTransition(instant);
+            assertEquals(instant, cursor.getInstant());
+            assertEquals(zone.getOffset(instant - 1), cursor.getOffsetBefore());
+            assertEquals(zone.getOffset(instant), cursor.getOffsetAfter());
+        }
+        assertTrue(zone.nextTransition(instant) >= end);
+
+        // Fixed zones have no transitions
+        cursor.reset(DateTimeZone.UTC, start, end);
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testZoneMetadata() throws Exception {
+        ZoneMetadata metadata = new ZoneMetadata(mContext);
+        assertEquals(mProvider.getAvailableIDs(), metadata.getAvailableIDs());
+
+        long start = metadata.getWindowStart();
+        long end = metadata.getWindowEnd();
+        for (String id : metadata.getAvailableIDs()) {
+            DateTimeZone zone = mProvider.getZone(id);
+            assertEquals(zone.getID(), metadata.getCanonicalID(id));
+            assertEquals(zone.isFixed(), metadata.isFixed(id));
+
+            for (long instant = start; instant < end; instant += 29 * DateTimeConstants.MILLIS_PER_DAY) {
+                assertEquals(zone.getOffset(instant), metadata.getOffset(id, instant));
+                assertEquals(zone.getStandardOffset(instant), metadata.getStandardOffset(id, instant));
+
+                long next = metadata.nextTransition(id, instant);
+                if (next != instant) {
+                    assertEquals(zone.getOffset(instant), zone.getOffset(next - 1));
+                    assertTrue(zone.getOffset(next) != zone.getOffset(next - 1)
+                        || zone.getStandardOffset(next) != zone.getStandardOffset(next - 1));
+                }
+            }
+        }
+
+        assertTrue(metadata.observesDaylightTime("America/New_York"));
+        assertFalse(metadata.observesDaylightTime("Asia/Tokyo"));
+        assertEquals("America/Los_Angeles", metadata.getCanonicalID("US/Pacific"));
+        assertNull(metadata.getCanonicalID("Not/AZone"));
+
+        // Outside the window, it answers from the zone itself
+        long[] outside = new long[] {
+            start - 1,
+            start - 365L * DateTimeConstants.MILLIS_PER_DAY,
+            end,
+            end + 180L * DateTimeConstants.MILLIS_PER_DAY,
+            end + 50 * 365L * DateTimeConstants.MILLIS_PER_DAY,
+        };
+        for (String id : Arrays.asList("Europe/Paris", "America/New_York", "Australia/Sydney", "Asia/Tokyo", "UTC")) {
+            DateTimeZone zone = mProvider.getZone(id);
+            for (long instant : outside) {
+                assertEquals(zone.getOffset(instant), metadata.getOffset(id, instant));
+                assertEquals(zone.getStandardOffset(instant), metadata.getStandardOffset(id, instant));
+                assertEquals(!zone.isStandardOffset(instant), metadata.isDaylight(id, instant));
+
+                long next = metadata.nextTransition(id, instant);
+                if (zone.isFixed() || zone.nextTransition(instant) == instant) {
+                    assertEquals(instant, next);
+                }
+                else {
+                    assertTrue(next > instant);
+                    assertTrue(zone.getOffset(next) != zone.getOffset(next - 1)
+                        || zone.getStandardOffset(next) != zone.getStandardOffset(next - 1));
+                }
+            }
+        }
+
+        try {
+            metadata.getOffset("Not/AZone", end + 1);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testTimeZoneConverter() throws Exception {
+        TimeZone oldDefault = TimeZone.getDefault();
+        try {
+            TimeZone tokyo = TimeZone.getTimeZone("Asia/Tokyo");
+            assertEquals(DateTimeZone.forTimeZone(tokyo), TimeZoneConverter.forTimeZone(tokyo));
+            assertSame(TimeZoneConverter.forTimeZone(tokyo), TimeZoneConverter.forTimeZone(tokyo));
+
+            // Old-style ids get translated
+            TimeZone est = TimeZone.getTimeZone("EST");
+            assertEquals(DateTimeZone.forTimeZone(est), TimeZoneConverter.forTimeZone(est));
+
+            TimeZone.setDefault(TimeZone.getTimeZone("Europe/Paris"));
+            TimeZoneConverter.invalidateDefault();
+            assertEquals("Europe/Paris", TimeZoneConverter.forDefaultTimeZone().getID());
+            assertEquals("Europe/Paris", TimeZoneConverter.forTimeZone(null).getID());
+
+            // Changes to the default only show up after invalidating
+            TimeZone.setDefault(TimeZone.getTimeZone("America/Chicago"));
+            assertEquals("Europe/Paris", TimeZoneConverter.forDefaultTimeZone().getID());
+            TimeZoneConverter.invalidateDefault();
+            assertEquals("America/Chicago", TimeZoneConverter.forDefaultTimeZone().getID());
+
+            // Changing the provider converts everything again, without having to invalidate
+            DateTimeZone oldTokyo = TimeZoneConverter.forTimeZone(tokyo);
+            DateTimeZone oldChicago = TimeZoneConverter.forDefaultTimeZone();
+            ResourceZoneInfoProvider provider = new ResourceZoneInfoProvider(mContext);
+            DateTimeZone.setProvider(provider);
+            assertNotSame(oldTokyo, TimeZoneConverter.forTimeZone(tokyo));
+            assertSame(provider.getZone("Asia/Tokyo"), TimeZoneConverter.forTimeZone(tokyo));
+            assertNotSame(oldChicago, TimeZoneConverter.forDefaultTimeZone());
+            assertSame(provider.getZone("America/Chicago"), TimeZoneConverter.forDefaultTimeZone());
+        }
+        finally {
+            TimeZone.setDefault(oldDefault);
+            TimeZoneConverter.invalidateDefault();
+        }
+    }
+
+    @Test
+    public void testTimeZoneChangedReceiver() throws Exception {
+        TimeZone oldDefault = TimeZone.getDefault();
+
+        // Catch up with the provider swap in setUp(), so the listener only hears about the zone change
+        JodaTimeChanges.getVersion();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger notifications = new AtomicInteger();
+        JodaTimeChanges.Listener listener = new JodaTimeChanges.Listener() {
+            @Override
+            public void onChanged(int changes) {
+                assertEquals(JodaTimeChanges.DEFAULT_ZONE, changes);
+                notifications.incrementAndGet();
+                latch.countDown();
+            }
+        };
+        JodaTimeChanges.addListener(listener);
+
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Honolulu"));
+
+            // A burst of broadcasts only changes the default once
+            TimeZoneChangedReceiver receiver = new TimeZoneChangedReceiver();
+            for (int a = 0; a < 5; a++) {
+                receiver.onReceive(mContext, new Intent(Intent.ACTION_TIMEZONE_CHANGED));
+            }
+
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertEquals("Pacific/Honolulu", DateTimeZone.getDefault().getID());
+
+            Thread.sleep(500);
+            assertEquals(1, notifications.get());
+        }
+        finally {
+            JodaTimeChanges.removeListener(listener);
+            TimeZone.setDefault(oldDefault);
+            TimeZoneConverter.invalidateDefault();
+        }
+    }
+
+    @Test
+    public void testTimeZoneChangedReceiverListenerFails() throws Exception {
+        TimeZone oldDefault = TimeZone.getDefault();
+        JodaTimeChanges.getVersion();
+
+        final CountDownLatch firstLatch = new CountDownLatch(1);
+        final CountDownLatch secondLatch = new CountDownLatch(2);
+        JodaTimeChanges.Listener listener = new JodaTimeChanges.Listener() {
+            @Override
+            public void onChanged(int changes) {
+                firstLatch.countDown();
+                secondLatch.countDown();
+                throw new IllegalStateException("Listener failed");
+            }
+        };
+        JodaTimeChanges.addListener(listener);
+
+        try {
+            TimeZoneChangedReceiver receiver = new TimeZoneChangedReceiver();
+            TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Honolulu"));
+            receiver.onReceive(mContext, new Intent(Intent.ACTION_TIMEZONE_CHANGED));
+            assertTrue(firstLatch.await(10, TimeUnit.SECONDS));
+            assertEquals("Pacific/Honolulu", DateTimeZone.getDefault().getID());
+
+            // The failure didn't stop later broadcasts from being handled
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+            receiver.onReceive(mContext, new Intent(Intent.ACTION_TIMEZONE_CHANGED));
+            assertTrue(secondLatch.await(10, TimeUnit.SECONDS));
+            assertEquals("Asia/Tokyo", DateTimeZone.getDefault().getID());
+        }
+        finally {
+            JodaTimeChanges.removeListener(listener);
+            TimeZone.setDefault(oldDefault);
+            TimeZoneConverter.invalidateDefault();
+        }
+    }
+
+    @Test
+    public void testJodaTimeChanges() throws Exception {
+        Locale oldLocale = Locale.getDefault();
+        JodaTimeChanges.getVersion();
+
+        final AtomicInteger changes = new AtomicInteger();
+        JodaTimeChanges.Listener listener = new JodaTimeChanges.Listener() {
+            @Override
+            public void onChanged(int change) {
+                changes.set(changes.get() | change);
+            }
+        };
+        JodaTimeChanges.addListener(listener);
+
+        try {
+            int version = JodaTimeChanges.getVersion();
+            int zoneVersion = JodaTimeChanges.getDefaultZoneVersion();
+            int localeVersion = JodaTimeChanges.getLocaleVersion();
+            int providerVersion = JodaTimeChanges.getProviderVersion();
+
+            // Nothing changed
+            assertEquals(version, JodaTimeChanges.getVersion());
+            assertEquals(0, changes.get());
+
+            DateTimeZone.setDefault(DateTimeZone.forID("Asia/Tokyo"));
+            assertEquals(zoneVersion + 1, JodaTimeChanges.getDefaultZoneVersion());
+            assertEquals(JodaTimeChanges.DEFAULT_ZONE, changes.getAndSet(0));
+
+            Locale.setDefault(Locale.JAPAN.equals(oldLocale) ? Locale.FRANCE : Locale.JAPAN);
+            assertEquals(localeVersion + 1, JodaTimeChanges.getLocaleVersion());
+            assertEquals(JodaTimeChanges.LOCALE, changes.getAndSet(0));
+
+            DateTimeZone.setProvider(new ResourceZoneInfoProvider(mContext));
+            assertEquals(providerVersion + 1, JodaTimeChanges.getProviderVersion());
+            assertEquals(JodaTimeChanges.PROVIDER, changes.getAndSet(0));
+
+            assertEquals(version + 3, JodaTimeChanges.getVersion());
+        }
+        finally {
+            JodaTimeChanges.removeListener(listener);
+            Locale.setDefault(oldLocale);
+        }
+    }
+
+    @Test
+    public void testLazyProvider() throws Exception {
+        ResourceZoneInfoProvider lazyProvider = new ResourceZoneInfoProvider(mContext, true);
+        assertEquals(mProvider.getAvailableIDs(), lazyProvider.getAvailableIDs());
+        assertEquals(mProvider.getZone("Europe/Rome"), lazyProvider.getZone("Europe/Rome"));
+    }
+
+    private static void assertZoneClass(String expectedSimpleName, DateTimeZone zone) {
+        // The optimized zone classes aren't public, so go by name
+        assertEquals(expectedSimpleName, zone.getClass().getSimpleName());
+    }
+
+    private static void assertOffsetsEqual(DateTimeZone expected, DateTimeZone actual) {
+        long start = new DateTime(1995, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+        long end = new DateTime(2045, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+        for (long instant = start; instant < end; instant += 7 * DateTimeConstants.MILLIS_PER_HOUR + 13) {
+            assertEquals(expected.getOffset(instant), actual.getOffset(instant));
+            assertEquals(expected.getStandardOffset(instant), actual.getStandardOffset(instant));
+            assertEquals(expected.getNameKey(instant), actual.getNameKey(instant));
+            assertEquals(expected.nextTransition(instant), actual.nextTransition(instant));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package net.danlew.android.joda;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Templates like "%1$s, %2$s" that put clauses together, parsed so that each clause can be
+ * appended straight into a StringBuilder instead of being formatted to a String first.
+ *
+ * Templates are parsed once into the text around each "%s" (or "%1$s", "%2$s", ...).  Anything
+ * more complex (other conversions, flags, widths) isn't supported, and should be left to a
+ * Formatter.
+ */
+final class ClauseTemplate {
+
+    // Same as CountTemplate: there are only a few of these per locale
+    private static final int MAX_CACHED_TEMPLATES = 256;
+
+    private static final ConcurrentMap<String, ClauseTemplate> sTemplates =
+        new ConcurrentHashMap<String, ClauseTemplate>();
+
+    /** Marks templates that have to go through a Formatter */
+    private static final ClauseTemplate UNSUPPORTED = new ClauseTemplate(null, null);
+
+    /** The text before, between and after each clause */
+    private final String[] mText;
+
+    /** The (zero-based) argument for each clause */
+    private final int[] mArguments;
+
+    private ClauseTemplate(String[] text, int[] arguments) {
+        mText = text;
+        mArguments = arguments;
+    }
+
+    /**
+     * @param template the template
+     * @param argumentCount the number of arguments there are to fill it in with
+     * @return the parsed template, or null if it has to go through a Formatter (including if it
+     * uses more arguments than there are, so that the Formatter can complain about it)
+     */
+    static ClauseTemplate get(String template, int argumentCount) {
+        ClauseTemplate compiled = sTemplates.get(template);
+        if (compiled == null) {
+            compiled = compile(template);
+            if (sTemplates.size() >= MAX_CACHED_TEMPLATES) {
+                sTemplates.clear();
+            }
+            sTemplates.put(template, compiled);
+        }
+
+        if (compiled == UNSUPPORTED) {
+            return null;
+        }
+        for (int argument : compiled.mArguments) {
+            if (argument >= argumentCount) {
+                return null;
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * @return the number of clauses in the template
+     */
+    int getClauseCount() {
+        return mArguments.length;
+    }
+
+    /**
+     * @param index which clause
+     * @return the (zero-based) argument that goes there
+     */
+    int getArgument(int index) {
+        return mArguments[index];
+    }
+
+    /**
+     * @param index which text, from 0 (before the first clause) to {@link #getClauseCount()}
+     * (after the last)
+     * @return the text
+     */
+    String getText(int index) {
+        return mText[index];
+    }
+
+    /**
+     * @return the compiled template, or {@link #UNSUPPORTED} if it uses anything besides
+     * "%s", "%n$s" and "%%"
+     */
+    private static ClauseTemplate compile(String template) {
+        List<String> text = new ArrayList<String>();
+        List<Integer> arguments = new ArrayList<Integer>();
+        StringBuilder sb = new StringBuilder();
+        int ordinaryIndex = 0;
+        int length = template.length();
+        for (int a = 0; a < length; a++) {
+            char c = template.charAt(a);
+            if (c != '%') {
+                sb.append(c);
+                continue;
+            }
+
+            if (template.startsWith("%%", a)) {
+                sb.append('%');
+                a += 1;
+                continue;
+            }
+
+            int argument;
+            if (template.startsWith("%s", a)) {
+                argument = ordinaryIndex++;
+                a += 1;
+            }
+            else {
+                // "%n$s", with n from 1 to 9
+                if (a + 3 >= length || template.charAt(a + 1) < '1' || template.charAt(a + 1) > '9'
+                    || template.charAt(a + 2) != '$' || template.charAt(a + 3) != 's') {
+                    return UNSUPPORTED;
+                }
+                argument = template.charAt(a + 1) - '1';
+                a += 3;
+            }
+
+            text.add(sb.toString());
+            sb.setLength(0);
+            arguments.add(argument);
+        }
+        text.add(sb.toString());
+
+        int[] argumentArray = new int[arguments.size()];
+        for (int a = 0; a < argumentArray.length; a++) {
+            argumentArray[a] = arguments.get(a);
+        }
+        return new ClauseTemplate(text.toArray(new String[text.size()]), argumentArray);
+    }
+}
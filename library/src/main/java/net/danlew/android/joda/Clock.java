@@ -0,0 +1,27 @@
+package net.danlew.android.joda;
+
+import org.joda.time.DateTimeUtils;
+
+/**
+ * Where {@link DateUtils} and {@link RelativeTimeFormatter} get the current time from.
+ *
+ * By default that's DateTimeUtils.currentTimeMillis() (so DateTimeUtils.setCurrentMillisFixed()
+ * works as usual); use {@link DateUtils#setClock(Clock)} to change it.
+ *
+ * @see NowSnapshot
+ */
+public interface Clock {
+
+    /** Uses DateTimeUtils.currentTimeMillis() */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long getMillis() {
+            return DateTimeUtils.currentTimeMillis();
+        }
+    };
+
+    /**
+     * @return the current time, in millis since the epoch
+     */
+    long getMillis();
+}
@@ -0,0 +1,201 @@
+package net.danlew.android.joda;
+
+import android.os.Build;
+
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Formats plurals templates like "%d minutes ago" without going through String.format(),
+ * which has to parse the template on every call.
+ *
+ * Templates are parsed once into the text around each "%d" (or "%1$d").  The count is written
+ * with the locale's digits, exactly as String.format() would.  Anything more complex (other
+ * conversions, flags, widths) is left to String.format().
+ */
+final class CountTemplate {
+
+    // Templates vary by resource and locale, but there aren't many; if there are suddenly lots
+    // (say, someone is formatting their own templates), start over rather than grow forever
+    private static final int MAX_CACHED_TEMPLATES = 256;
+
+    private static final ConcurrentMap<String, CountTemplate> sTemplates =
+        new ConcurrentHashMap<String, CountTemplate>();
+
+    /** Marks templates that have to go through String.format() */
+    private static final CountTemplate UNSUPPORTED = new CountTemplate(null);
+
+    private static volatile ZeroDigit sZeroDigit;
+
+    /** The text before, between and after each count */
+    private final String[] mText;
+
+    private CountTemplate(String[] text) {
+        mText = text;
+    }
+
+    /**
+     * Same as String.format(template, count).
+     */
+    static String format(String template, long count) {
+        return format(getDefaultFormatLocale(), template, count);
+    }
+
+    /**
+     * Same as String.format(locale, template, count).
+     */
+    static String format(Locale locale, String template, long count) {
+        CountTemplate compiled = get(template);
+        if (compiled == UNSUPPORTED || count < 0) {
+            return String.format(locale, template, count);
+        }
+
+        StringBuilder sb = new StringBuilder(template.length() + 8);
+        compiled.append(sb, count, getZeroDigit(locale));
+        return sb.toString();
+    }
+
+    /**
+     * Same as new Formatter(sb).format(template, count).
+     */
+    static StringBuilder append(StringBuilder sb, String template, long count) {
+        return append(sb, getDefaultFormatLocale(), template, count);
+    }
+
+    /**
+     * Same as new Formatter(sb, locale).format(template, count).
+     */
+    static StringBuilder append(StringBuilder sb, Locale locale, String template, long count) {
+        CountTemplate compiled = get(template);
+        if (compiled == UNSUPPORTED || count < 0) {
+            new Formatter(sb, locale).format(template, count);
+        }
+        else {
+            compiled.append(sb, count, getZeroDigit(locale));
+        }
+        return sb;
+    }
+
+    private void append(StringBuilder sb, long count, char zeroDigit) {
+        sb.append(mText[0]);
+        for (int a = 1; a < mText.length; a++) {
+            appendCount(sb, count, zeroDigit);
+            sb.append(mText[a]);
+        }
+    }
+
+    private static void appendCount(StringBuilder sb, long count, char zeroDigit) {
+        if (zeroDigit == '0') {
+            sb.append(count);
+            return;
+        }
+
+        long divisor = 1;
+        while (count / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            sb.append((char) (zeroDigit + (count / divisor) % 10));
+        }
+    }
+
+    private static CountTemplate get(String template) {
+        CountTemplate compiled = sTemplates.get(template);
+        if (compiled == null) {
+            compiled = compile(template);
+            if (sTemplates.size() >= MAX_CACHED_TEMPLATES) {
+                sTemplates.clear();
+            }
+            sTemplates.put(template, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * @return the compiled template, or {@link #UNSUPPORTED} if it uses anything besides
+     * "%d", "%1$d" and "%%"
+     */
+    private static CountTemplate compile(String template) {
+        List<String> text = new ArrayList<String>();
+        StringBuilder sb = new StringBuilder();
+        boolean usedOrdinaryIndex = false;
+        int length = template.length();
+        for (int a = 0; a < length; a++) {
+            char c = template.charAt(a);
+            if (c != '%') {
+                sb.append(c);
+                continue;
+            }
+
+            if (template.startsWith("%%", a)) {
+                sb.append('%');
+                a += 1;
+            }
+            else if (template.startsWith("%d", a)) {
+                // Only one argument, so only one ordinary index
+                if (usedOrdinaryIndex) {
+                    return UNSUPPORTED;
+                }
+                usedOrdinaryIndex = true;
+                text.add(sb.toString());
+                sb.setLength(0);
+                a += 1;
+            }
+            else if (template.startsWith("%1$d", a)) {
+                text.add(sb.toString());
+                sb.setLength(0);
+                a += 3;
+            }
+            else {
+                return UNSUPPORTED;
+            }
+        }
+        text.add(sb.toString());
+
+        return new CountTemplate(text.toArray(new String[text.size()]));
+    }
+
+    /**
+     * @return the locale that String.format() uses by default
+     */
+    private static Locale getDefaultFormatLocale() {
+        if (Build.VERSION.SDK_INT >= 24) {
+            return Locale.getDefault(Locale.Category.FORMAT);
+        }
+        return Locale.getDefault();
+    }
+
+    private static char getZeroDigit(Locale locale) {
+        if (locale == null) {
+            // Formatters don't localize anything without a locale
+            return '0';
+        }
+
+        ZeroDigit zeroDigit = sZeroDigit;
+        if (zeroDigit == null || !zeroDigit.mLocale.equals(locale)) {
+            zeroDigit = new ZeroDigit(locale, DecimalFormatSymbols.getInstance(locale).getZeroDigit());
+            sZeroDigit = zeroDigit;
+        }
+        return zeroDigit.mZeroDigit;
+    }
+
+    /**
+     * The zero digit for the last locale used.
+     */
+    private static final class ZeroDigit {
+
+        final Locale mLocale;
+
+        final char mZeroDigit;
+
+        ZeroDigit(Locale locale, char zeroDigit) {
+            mLocale = locale;
+            mZeroDigit = zeroDigit;
+        }
+    }
+}
@@ -2,22 +2,27 @@ package net.danlew.android.joda;
 
 import android.content.Context;
 import android.content.res.Resources;
+import android.os.Build;
+import org.joda.time.Chronology;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
 import org.joda.time.DateTimeFieldType;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Days;
 import org.joda.time.Duration;
-import org.joda.time.Hours;
-import org.joda.time.Interval;
 import org.joda.time.LocalDate;
-import org.joda.time.Minutes;
+import org.joda.time.LocalDateTime;
 import org.joda.time.ReadableDuration;
 import org.joda.time.ReadableInstant;
 import org.joda.time.ReadablePartial;
 import org.joda.time.ReadablePeriod;
-import org.joda.time.Seconds;
 import org.joda.time.Weeks;
 import org.joda.time.Years;
+import org.joda.time.base.AbstractPartial;
+import org.joda.time.chrono.ISOChronology;
+
+import java.util.Formatter;
+import java.util.Locale;
 
 /**
  * A replacement for android.text.format.DateUtils that uses Joda-Time classes.
@@ -63,6 +68,29 @@ public class DateUtils {
 
     private static final DateTime EPOCH = new DateTime(0, DateTimeZone.UTC);
 
+    // What EPOCH resolves partials with
+    private static final Chronology ISO_UTC = ISOChronology.getInstanceUTC();
+
+    private static volatile Clock sClock = Clock.SYSTEM;
+
+    /**
+     * Sets where the current time comes from, for every method that formats relative to now
+     * (here and in {@link RelativeTimeFormatter}).
+     *
+     * @param clock the clock to use, or null to go back to {@link Clock#SYSTEM}
+     * @see NowSnapshot
+     */
+    public static void setClock(Clock clock) {
+        sClock = clock != null ? clock : Clock.SYSTEM;
+    }
+
+    /**
+     * @return where the current time comes from
+     */
+    public static Clock getClock() {
+        return sClock;
+    }
+
     /**
      * Formats a date or a time according to the local conventions.
      *
@@ -94,6 +122,32 @@ public class DateUtils {
         return android.text.format.DateUtils.formatDateTime(context, toMillis(time), flags | FORMAT_UTC);
     }
 
+    /**
+     * Formats a date or a time according to the local conventions, appending it to a Formatter
+     * instead of creating a new String.
+     *
+     * @param formatter the Formatter to append to
+     * @return the formatter, for chaining
+     * @see #formatDateTime(Context, ReadablePartial, int)
+     */
+    public static Formatter formatDateTime(Context context, Formatter formatter, ReadablePartial time, int flags) {
+        long millis = toMillis(time);
+        return android.text.format.DateUtils.formatDateRange(context, formatter, millis, millis, flags | FORMAT_UTC);
+    }
+
+    /**
+     * Formats a date or a time according to the local conventions, appending it to a Formatter
+     * instead of creating a new String.
+     *
+     * @param formatter the Formatter to append to
+     * @return the formatter, for chaining
+     * @see #formatDateTime(Context, ReadableInstant, int)
+     */
+    public static Formatter formatDateTime(Context context, Formatter formatter, ReadableInstant time, int flags) {
+        long millis = toMillis(time);
+        return android.text.format.DateUtils.formatDateRange(context, formatter, millis, millis, flags | FORMAT_UTC);
+    }
+
     /**
      * Formats a date or a time range according to the local conventions.
      *
@@ -130,7 +184,37 @@ public class DateUtils {
         return formatDateRange(context, toMillis(start), toMillis(end), flags);
     }
 
-    private static String formatDateRange(Context context, long startMillis, long endMillis, int flags) {
+    /**
+     * Formats a date or a time range according to the local conventions, appending it to a
+     * Formatter instead of creating a new String.
+     *
+     * @param formatter the Formatter to append to
+     * @return the formatter, for chaining
+     * @see #formatDateRange(Context, ReadablePartial, ReadablePartial, int)
+     */
+    public static Formatter formatDateRange(Context context, Formatter formatter, ReadablePartial start,
+                                            ReadablePartial end, int flags) {
+        return formatDateRange(context, formatter, toMillis(start), toMillis(end), flags);
+    }
+
+    /**
+     * Formats a date or a time range according to the local conventions, appending it to a
+     * Formatter instead of creating a new String.
+     *
+     * @param formatter the Formatter to append to
+     * @return the formatter, for chaining
+     * @see #formatDateRange(Context, ReadableInstant, ReadableInstant, int)
+     */
+    public static Formatter formatDateRange(Context context, Formatter formatter, ReadableInstant start,
+                                            ReadableInstant end, int flags) {
+        return formatDateRange(context, formatter, toMillis(start), toMillis(end), flags);
+    }
+
+    /**
+     * @param startMillis the start time, with its local fields as UTC
+     * @param endMillis the end time, with its local fields as UTC
+     */
+    static String formatDateRange(Context context, long startMillis, long endMillis, int flags) {
         // Buffer is needed, otherwise end time is off by 1 crucial second; however, don't do this
         // if they are already equal (that indicates a point in time rather than a range).
         if (startMillis != endMillis) {
@@ -140,14 +224,45 @@ public class DateUtils {
         return android.text.format.DateUtils.formatDateRange(context, startMillis, endMillis, flags | FORMAT_UTC);
     }
 
+    private static Formatter formatDateRange(Context context, Formatter formatter, long startMillis, long endMillis,
+                                             int flags) {
+        // Same buffer as above
+        if (startMillis != endMillis) {
+            endMillis += 1000;
+        }
+
+        return android.text.format.DateUtils.formatDateRange(context, formatter, startMillis, endMillis,
+            flags | FORMAT_UTC);
+    }
+
+    /**
+     * @return the partial's fields as millis in UTC, with any missing fields from the epoch
+     */
     private static long toMillis(ReadablePartial time) {
+        // All the same as toDateTime(EPOCH), without creating the DateTime
+        if (time instanceof LocalDateTime) {
+            LocalDateTime localDateTime = (LocalDateTime) time;
+            return ISO_UTC.getDateTimeMillis(localDateTime.getYear(), localDateTime.getMonthOfYear(),
+                localDateTime.getDayOfMonth(), localDateTime.getMillisOfDay());
+        }
+        else if (time instanceof LocalDate) {
+            LocalDate localDate = (LocalDate) time;
+            return ISO_UTC.getDateTimeMillis(localDate.getYear(), localDate.getMonthOfYear(),
+                localDate.getDayOfMonth(), 0);
+        }
+        else if (time instanceof AbstractPartial) {
+            return ISO_UTC.set(time, 0);
+        }
         return time.toDateTime(EPOCH).getMillis();
     }
 
+    /**
+     * @return the instant's local date and time as millis in UTC (the same as
+     * withZoneRetainFields(UTC), without creating any DateTimes)
+     */
     private static long toMillis(ReadableInstant time) {
-        DateTime dateTime = time instanceof DateTime ? (DateTime) time : new DateTime(time);
-        DateTime utcDateTime = dateTime.withZoneRetainFields(DateTimeZone.UTC);
-        return utcDateTime.getMillis();
+        long millis = time.getMillis();
+        return millis + time.getZone().getOffset(millis);
     }
 
     /**
@@ -190,8 +305,8 @@ public class DateUtils {
                 "month, month of year and year.");
         }
 
-        LocalDate localDate = time instanceof LocalDate ? (LocalDate) time : new LocalDate(time);
-        return LocalDate.now().compareTo(localDate) == 0;
+        return TodayWindow.get().isToday(time.get(DateTimeFieldType.year()),
+            time.get(DateTimeFieldType.monthOfYear()), time.get(DateTimeFieldType.dayOfMonth()));
     }
 
     /**
@@ -200,7 +315,12 @@ public class DateUtils {
      * @return true if the supplied when is today else false
      */
     public static boolean isToday(ReadableInstant time) {
-        return LocalDate.now().compareTo(new LocalDate(time)) == 0;
+        if (TodayWindow.isSupported(time)) {
+            return TodayWindow.get().isToday(toMillis(time));
+        }
+
+        return TodayWindow.get().isToday(time.get(DateTimeFieldType.year()),
+            time.get(DateTimeFieldType.monthOfYear()), time.get(DateTimeFieldType.dayOfMonth()));
     }
 
     /**
@@ -211,7 +331,7 @@ public class DateUtils {
      * @see #getRelativeTimeSpanString(Context, ReadableInstant, int)
      */
     public static CharSequence getRelativeTimeSpanString(Context context, ReadablePartial time) {
-        return getRelativeTimeSpanString(context, time.toDateTime(DateTime.now()));
+        return getRelativeTimeSpanString(context, time.toDateTime(NowSnapshot.now()));
     }
 
     /**
@@ -230,7 +350,7 @@ public class DateUtils {
      * @see #getRelativeTimeSpanString(Context, ReadableInstant, int)
      */
     public static CharSequence getRelativeTimeSpanString(Context context, ReadablePartial time, int flags) {
-        return getRelativeTimeSpanString(context, time.toDateTime(DateTime.now()), flags);
+        return getRelativeTimeSpanString(context, time.toDateTime(NowSnapshot.now()), flags);
     }
 
     /**
@@ -244,98 +364,45 @@ public class DateUtils {
      * @return a string describing 'time' as a time relative to 'now'.
      */
     public static CharSequence getRelativeTimeSpanString(Context context, ReadableInstant time, int flags) {
-        boolean abbrevRelative = (flags & (FORMAT_ABBREV_RELATIVE | FORMAT_ABBREV_ALL)) != 0;
+        return getRelativeTimeSpanString(context, new StringBuilder(), time, flags).toString();
+    }
 
-        // We set the millis to 0 so we aren't off by a fraction of a second when counting intervals
-        DateTime now = DateTime.now(time.getZone()).withMillisOfSecond(0);
-        DateTime timeDt = new DateTime(time).withMillisOfSecond(0);
-        boolean past = !now.isBefore(timeDt);
-        Interval interval = past ? new Interval(timeDt, now) : new Interval(now, timeDt);
+    /**
+     * Appends a string describing 'time' as a time relative to the current time.
+     *
+     * Missing fields from 'time' are filled in with values from the current time.
+     *
+     * @param sb the StringBuilder to append to
+     * @return sb, for chaining
+     * @see #getRelativeTimeSpanString(Context, ReadablePartial, int)
+     */
+    public static StringBuilder getRelativeTimeSpanString(Context context, StringBuilder sb, ReadablePartial time,
+                                                          int flags) {
+        return getRelativeTimeSpanString(context, sb, time.toDateTime(NowSnapshot.now()), flags);
+    }
 
-        int resId;
-        long count;
-        if (Minutes.minutesIn(interval).isLessThan(Minutes.ONE)) {
-            count = Seconds.secondsIn(interval).getSeconds();
-            if (past) {
-                if (abbrevRelative) {
-                    resId = R.plurals.joda_time_android_abbrev_num_seconds_ago;
-                }
-                else {
-                    resId = R.plurals.joda_time_android_num_seconds_ago;
-                }
-            }
-            else {
-                if (abbrevRelative) {
-                    resId = R.plurals.joda_time_android_abbrev_in_num_seconds;
-                }
-                else {
-                    resId = R.plurals.joda_time_android_in_num_seconds;
-                }
-            }
-        }
-        else if (Hours.hoursIn(interval).isLessThan(Hours.ONE)) {
-            count = Minutes.minutesIn(interval).getMinutes();
-            if (past) {
-                if (abbrevRelative) {
-                    resId = R.plurals.joda_time_android_abbrev_num_minutes_ago;
-                }
-                else {
-                    resId = R.plurals.joda_time_android_num_minutes_ago;
-                }
-            }
-            else {
-                if (abbrevRelative) {
-                    resId = R.plurals.joda_time_android_abbrev_in_num_minutes;
-                }
-                else {
-                    resId = R.plurals.joda_time_android_in_num_minutes;
-                }
-            }
-        }
-        else if (Days.daysIn(interval).isLessThan(Days.ONE)) {
-            count = Hours.hoursIn(interval).getHours();
-            if (past) {
-                if (abbrevRelative) {
-                    resId = R.plurals.joda_time_android_abbrev_num_hours_ago;
-                }
-                else {
-                    resId = R.plurals.joda_time_android_num_hours_ago;
-                }
-            }
-            else {
-                if (abbrevRelative) {
-                    resId = R.plurals.joda_time_android_abbrev_in_num_hours;
-                }
-                else {
-                    resId = R.plurals.joda_time_android_in_num_hours;
-                }
-            }
-        }
-        else if (Weeks.weeksIn(interval).isLessThan(Weeks.ONE)) {
-            count = Days.daysIn(interval).getDays();
-            if (past) {
-                if (abbrevRelative) {
-                    resId = R.plurals.joda_time_android_abbrev_num_days_ago;
-                }
-                else {
-                    resId = R.plurals.joda_time_android_num_days_ago;
-                }
-            }
-            else {
-                if (abbrevRelative) {
-                    resId = R.plurals.joda_time_android_abbrev_in_num_days;
-                }
-                else {
-                    resId = R.plurals.joda_time_android_in_num_days;
-                }
-            }
-        }
-        else {
-            return formatDateRange(context, time, time, flags);
+    /**
+     * Appends a string describing 'time' as a time relative to the current time, instead of
+     * creating a new String.
+     *
+     * @param sb the StringBuilder to append to
+     * @return sb, for chaining
+     * @see #getRelativeTimeSpanString(Context, ReadableInstant, int)
+     */
+    public static StringBuilder getRelativeTimeSpanString(Context context, StringBuilder sb, ReadableInstant time,
+                                                          int flags) {
+        boolean abbrevRelative = (flags & (FORMAT_ABBREV_RELATIVE | FORMAT_ABBREV_ALL)) != 0;
+
+        long span = RelativeTimeSpan.compute(time, NowSnapshot.currentTimeMillis());
+        if (span == RelativeTimeSpan.NONE) {
+            formatDateRange(context, new Formatter(sb), time, time, flags);
+            return sb;
         }
 
+        long count = RelativeTimeSpan.getCount(span);
+        int resId = RelativeTimeSpan.getPluralsResId(span, abbrevRelative);
         String format = context.getResources().getQuantityString(resId, (int) count);
-        return String.format(format, count);
+        return CountTemplate.append(sb, format, count);
     }
 
     /**
@@ -349,7 +416,7 @@ public class DateUtils {
      * preposition ("at 9:20am", "on 10/12/2008" or "on May 29").
      */
     public static CharSequence getRelativeTimeSpanString(Context ctx, ReadablePartial time, boolean withPreposition) {
-        return getRelativeTimeSpanString(ctx, time.toDateTime(DateTime.now()), withPreposition);
+        return getRelativeTimeSpanString(ctx, time.toDateTime(NowSnapshot.now()), withPreposition);
     }
 
     /**
@@ -361,37 +428,51 @@ public class DateUtils {
      * preposition ("at 9:20am", "on 10/12/2008" or "on May 29").
      */
     public static CharSequence getRelativeTimeSpanString(Context ctx, ReadableInstant time, boolean withPreposition) {
-        String result;
-        LocalDate now = LocalDate.now();
-        LocalDate timeDate = new LocalDate(time);
+        int flags = getDateClauseFlags(time);
+        String result = formatDateRange(ctx, time, time, flags);
 
-        int prepositionId;
-        if (Days.daysBetween(now, timeDate).getDays() == 0) {
-            // Same day
-            int flags = FORMAT_SHOW_TIME;
-            result = formatDateRange(ctx, time, time, flags);
-            prepositionId = R.string.joda_time_android_preposition_for_time;
+        if (withPreposition) {
+            // A time (same day) or a date (like "10/31/2008" or "Oct 31")
+            int prepositionId = flags == FORMAT_SHOW_TIME ? R.string.joda_time_android_preposition_for_time
+                : R.string.joda_time_android_preposition_for_date;
+            result = ctx.getString(prepositionId, result);
         }
-        else if (Years.yearsBetween(now, timeDate).getYears() != 0) {
-            // Different years
-            int flags = FORMAT_SHOW_DATE | FORMAT_SHOW_YEAR | FORMAT_NUMERIC_DATE;
-            result = formatDateRange(ctx, time, time, flags);
 
-            // This is a date (like "10/31/2008" so use the date preposition)
-            prepositionId = R.string.joda_time_android_preposition_for_date;
+        return result;
+    }
+
+    /**
+     * @return the flags to format 'time' with for
+     * {@link #getRelativeTimeSpanString(Context, ReadableInstant, boolean)}
+     */
+    private static int getDateClauseFlags(ReadableInstant time) {
+        boolean sameDay;
+        boolean withinYear;
+        if (TodayWindow.isSupported(time)) {
+            TodayWindow today = TodayWindow.get();
+            long localMillis = toMillis(time);
+            sameDay = today.isToday(localMillis);
+            withinYear = today.isWithinYear(localMillis);
         }
         else {
-            // Default
-            int flags = FORMAT_SHOW_DATE | FORMAT_ABBREV_MONTH;
-            result = formatDateRange(ctx, time, time, flags);
-            prepositionId = R.string.joda_time_android_preposition_for_date;
+            LocalDate now = NowSnapshot.today();
+            LocalDate timeDate = new LocalDate(time);
+            sameDay = Days.daysBetween(now, timeDate).getDays() == 0;
+            withinYear = Years.yearsBetween(now, timeDate).getYears() == 0;
         }
 
-        if (withPreposition) {
-            result = ctx.getString(prepositionId, result);
+        if (sameDay) {
+            // Same day
+            return FORMAT_SHOW_TIME;
+        }
+        else if (!withinYear) {
+            // Different years
+            return FORMAT_SHOW_DATE | FORMAT_SHOW_YEAR | FORMAT_NUMERIC_DATE;
+        }
+        else {
+            // Default
+            return FORMAT_SHOW_DATE | FORMAT_ABBREV_MONTH;
         }
-
-        return result;
     }
 
     /**
@@ -405,13 +486,16 @@ public class DateUtils {
      */
     public static CharSequence getRelativeDateTimeString(Context context, ReadablePartial time,
                                                          ReadablePeriod transitionResolution, int flags) {
+        checkSupportsTime(time);
+        return getRelativeDateTimeString(context, time.toDateTime(NowSnapshot.now()), transitionResolution, flags);
+    }
+
+    static void checkSupportsTime(ReadablePartial time) {
         if (!time.isSupported(DateTimeFieldType.hourOfDay())
             || !time.isSupported(DateTimeFieldType.minuteOfHour())) {
             throw new IllegalArgumentException("getRelativeDateTimeString() must be passed a ReadablePartial that " +
                 "supports time, otherwise it makes no sense");
         }
-
-        return getRelativeDateTimeString(context, time.toDateTime(DateTime.now()), transitionResolution, flags);
     }
 
     /**
@@ -432,14 +516,111 @@ public class DateUtils {
      */
     public static CharSequence getRelativeDateTimeString(Context context, ReadableInstant time,
                                                          ReadablePeriod transitionResolution, int flags) {
+        return getRelativeDateTimeString(context, new StringBuilder(), time, transitionResolution, flags, null)
+            .toString();
+    }
+
+    /**
+     * Appends a string describing the time until/elapsed time since 'time' formatted like
+     * "[relative time/date], [time]", instead of creating a new String.
+     *
+     * @param sb the StringBuilder to append to
+     * @return sb, for chaining
+     * @throws IllegalArgumentException if using a ReadablePartial without a time component
+     * @see #getRelativeDateTimeString(Context, ReadablePartial, ReadablePeriod, int)
+     */
+    public static StringBuilder getRelativeDateTimeString(Context context, StringBuilder sb, ReadablePartial time,
+                                                          ReadablePeriod transitionResolution, int flags) {
+        checkSupportsTime(time);
+        return getRelativeDateTimeString(context, sb, time.toDateTime(NowSnapshot.now()), transitionResolution, flags);
+    }
+
+    /**
+     * Appends a string describing the time until/elapsed time since 'time' formatted like
+     * "[relative time/date], [time]", instead of creating a new String.
+     *
+     * @param sb the StringBuilder to append to
+     * @return sb, for chaining
+     * @see #getRelativeDateTimeString(Context, ReadableInstant, ReadablePeriod, int)
+     */
+    public static StringBuilder getRelativeDateTimeString(Context context, StringBuilder sb, ReadableInstant time,
+                                                          ReadablePeriod transitionResolution, int flags) {
+        return getRelativeDateTimeString(context, sb, time, transitionResolution, flags, null);
+    }
+
+    /**
+     * @param relativeTimeFormatter if non-null, used to format the relative clause
+     * @see #getRelativeDateTimeString(Context, StringBuilder, ReadableInstant, ReadablePeriod, int)
+     */
+    static StringBuilder getRelativeDateTimeString(Context context, StringBuilder sb, ReadableInstant time,
+                                                   ReadablePeriod transitionResolution, int flags,
+                                                   RelativeTimeFormatter relativeTimeFormatter) {
         Resources r = context.getResources();
+        boolean relative = isWithinTransition(time, transitionResolution);
+        String template = r.getString(relative ? R.string.joda_time_android_relative_time
+            : R.string.joda_time_android_date_time);
+
+        ClauseTemplate compiled = ClauseTemplate.get(template, 2);
+        if (compiled == null) {
+            // Formatted the same way as Resources.getString(int, Object...)
+            StringBuilder firstClause = new StringBuilder();
+            appendFirstClause(context, firstClause, new Formatter(firstClause), time, relative, flags,
+                relativeTimeFormatter);
+            String timeClause = formatDateRange(context, time, time, FORMAT_SHOW_TIME);
+            new Formatter(sb, getLocale(r)).format(template, firstClause.toString(), timeClause);
+            return sb;
+        }
+
+        // Each clause is appended straight to sb (formatDateRange() appends to the Formatter's StringBuilder)
+        Formatter formatter = new Formatter(sb);
+        sb.append(compiled.getText(0));
+        for (int a = 0; a < compiled.getClauseCount(); a++) {
+            if (compiled.getArgument(a) == 0) {
+                appendFirstClause(context, sb, formatter, time, relative, flags, relativeTimeFormatter);
+            }
+            else {
+                formatDateRange(context, formatter, time, time, FORMAT_SHOW_TIME);
+            }
+            sb.append(compiled.getText(a + 1));
+        }
+
+        return sb;
+    }
+
+    /**
+     * Appends the relative time (or date) clause of getRelativeDateTimeString().
+     *
+     * @param formatter a Formatter that appends to 'sb'
+     */
+    private static void appendFirstClause(Context context, StringBuilder sb, Formatter formatter,
+                                          ReadableInstant time, boolean relative, int flags,
+                                          RelativeTimeFormatter relativeTimeFormatter) {
+        if (!relative) {
+            formatDateRange(context, formatter, time, time, getDateClauseFlags(time));
+        }
+        else if (relativeTimeFormatter != null) {
+            sb.append(relativeTimeFormatter.getRelativeTimeSpanString(time, flags));
+        }
+        else {
+            getRelativeTimeSpanString(context, sb, time, flags);
+        }
+    }
 
+    /**
+     * @return true if 'time' is close enough to now (as per transitionResolution) to be
+     * described relatively
+     */
+    private static boolean isWithinTransition(ReadableInstant time, ReadablePeriod transitionResolution) {
         // We set the millis to 0 so we aren't off by a fraction of a second when counting duration
-        DateTime now = DateTime.now(time.getZone()).withMillisOfSecond(0);
+        DateTime now = new DateTime(NowSnapshot.currentTimeMillis(), time.getZone()).withMillisOfSecond(0);
         DateTime timeDt = new DateTime(time).withMillisOfSecond(0);
         boolean past = !now.isBefore(timeDt);
         Duration duration = past ? new Duration(timeDt, now) : new Duration(now, timeDt);
+        return !duration.isLongerThan(getTransitionDuration(now, timeDt, past, transitionResolution));
+    }
 
+    private static Duration getTransitionDuration(DateTime now, DateTime timeDt, boolean past,
+                                                  ReadablePeriod transitionResolution) {
         // getRelativeTimeSpanString() doesn't correctly format relative dates
         // above a week or exact dates below a day, so clamp
         // transitionResolution as needed.
@@ -460,19 +641,125 @@ public class DateUtils {
             }
         }
 
-        CharSequence timeClause = formatDateRange(context, time, time, FORMAT_SHOW_TIME);
+        return transitionDuration;
+    }
 
-        String result;
-        if (!duration.isLongerThan(transitionDuration)) {
-            CharSequence relativeClause = getRelativeTimeSpanString(context, time, flags);
-            result = r.getString(R.string.joda_time_android_relative_time, relativeClause, timeClause);
+    /**
+     * Returns when {@link #getRelativeTimeSpanString(Context, ReadableInstant, int)} will next
+     * return something different for 'time', so that a view showing it can schedule one refresh
+     * instead of polling.
+     *
+     * This is never later than the actual change, but it can be a little early (around DST
+     * changes); formatting again then just gives the same text, and a new answer from here.  To be
+     * sure that the text and this agree on what "now" is, call both inside one {@link NowSnapshot}.
+     *
+     * @param time the time being described
+     * @param flags the flags it's being described with
+     * @return when the string will next change, in millis since the epoch, or Long.MAX_VALUE if
+     * it never will
+     */
+    public static long getRelativeTimeSpanStringNextChange(ReadableInstant time, int flags) {
+        long now = NowSnapshot.currentTimeMillis();
+        long next = RelativeTimeSpan.nextChange(time.getMillis(), time.getZone(), now);
+
+        if (RelativeTimeSpan.compute(time, now) == RelativeTimeSpan.NONE
+            && (flags & (FORMAT_SHOW_YEAR | FORMAT_NO_YEAR)) == 0) {
+            // Dates show the year when it's not this year
+            next = Math.min(next, getNextYear(now));
+        }
+
+        return next;
+    }
+
+    /**
+     * Returns when {@link #getRelativeDateTimeString(Context, ReadableInstant, ReadablePeriod, int)}
+     * will next return something different for 'time'.
+     *
+     * @return when the string will next change, in millis since the epoch, or Long.MAX_VALUE if
+     * it never will
+     * @see #getRelativeTimeSpanStringNextChange(ReadableInstant, int)
+     */
+    public static long getRelativeDateTimeStringNextChange(ReadableInstant time, ReadablePeriod transitionResolution,
+                                                           int flags) {
+        long nowMillis = NowSnapshot.currentTimeMillis();
+        DateTimeZone zone = time.getZone();
+        DateTime now = new DateTime(nowMillis, zone).withMillisOfSecond(0);
+        DateTime timeDt = new DateTime(time).withMillisOfSecond(0);
+        boolean past = !now.isBefore(timeDt);
+        long duration = Math.abs(now.getMillis() - timeDt.getMillis());
+        long transitionMillis = getTransitionDuration(now, timeDt, past, transitionResolution).getMillis();
+
+        // The time clause never changes, so it's down to the relative/date clause, and switching between them
+        long next;
+        if (duration <= transitionMillis) {
+            next = getRelativeTimeSpanStringNextChange(time, flags);
+            if (past) {
+                next = Math.min(next, RelativeTimeSpan.ceilToSecond(timeDt.getMillis() + transitionMillis + 1, zone));
+            }
         }
         else {
-            CharSequence dateClause = getRelativeTimeSpanString(context, time, false);
-            result = r.getString(R.string.joda_time_android_date_time, dateClause, timeClause);
+            next = getDateClauseNextChange(time, nowMillis);
+            if (!past) {
+                next = Math.min(next, RelativeTimeSpan.ceilToSecond(timeDt.getMillis() - transitionMillis, zone));
+            }
         }
 
-        return result;
+        if (transitionResolution != null) {
+            // The resolution's duration changes whenever either end of it crosses an offset change
+            next = Math.min(next, getNextOffsetChange(zone, nowMillis));
+
+            DateTime end = past ? now.minus(transitionResolution) : now.plus(transitionResolution);
+            long endChange = getNextOffsetChange(zone, end.getMillis());
+            if (endChange != Long.MAX_VALUE) {
+                DateTime endChangeDt = new DateTime(endChange, zone);
+                long change = (past ? endChangeDt.plus(transitionResolution)
+                    : endChangeDt.minus(transitionResolution)).getMillis();
+                if (change > nowMillis) {
+                    next = Math.min(next, change);
+                }
+            }
+        }
+
+        return next;
+    }
+
+    /**
+     * The date clause from getRelativeTimeSpanString(Context, ReadableInstant, boolean) depends on
+     * whether 'time' is today, whether it's within a year of today, and (for Android) whether
+     * it's this year; each of those can only change at midnight or new year.
+     */
+    private static long getDateClauseNextChange(ReadableInstant time, long nowMillis) {
+        DateTimeZone zone = NowSnapshot.currentZone();
+        LocalDate timeDate = new LocalDate(time);
+
+        long next = getNextYear(nowMillis);
+        for (int years = -1; years <= 1; years++) {
+            // A day either side, to be safe with leap days
+            for (int days = -1; days <= 1; days++) {
+                long midnight = timeDate.plusYears(years).plusDays(days).toDateTimeAtStartOfDay(zone).getMillis();
+                if (midnight > nowMillis && midnight < next) {
+                    next = midnight;
+                }
+            }
+        }
+
+        return next;
+    }
+
+    /**
+     * @return the start of next year in UTC, which is when Android's formatDateRange() starts
+     * treating last year differently
+     */
+    private static long getNextYear(long nowMillis) {
+        return ISO_UTC.years().add(ISO_UTC.year().roundFloor(nowMillis), 1);
+    }
+
+    /**
+     * @return the next time the zone's offset changes after 'millis', or Long.MAX_VALUE if never
+     */
+    private static long getNextOffsetChange(DateTimeZone zone, long millis) {
+        long next = zone.nextTransition(millis);
+        return next > millis ? next : Long.MAX_VALUE;
     }
 
     /**
@@ -487,21 +774,44 @@ public class DateUtils {
      * All currently supplied chronologies use this definition.
      */
     public static CharSequence formatDuration(Context context, ReadableDuration readableDuration) {
+        return formatDuration(context, new StringBuilder(), readableDuration).toString();
+    }
+
+    /**
+     * Appends the given duration in a human-friendly format, instead of creating a new String.
+     *
+     * @param sb the StringBuilder to append to
+     * @return sb, for chaining
+     * @see #formatDuration(Context, ReadableDuration)
+     */
+    public static StringBuilder formatDuration(Context context, StringBuilder sb, ReadableDuration readableDuration) {
         Resources res = context.getResources();
-        Duration duration = readableDuration.toDuration();
+        long millis = readableDuration.getMillis();
 
-        final int hours = (int) duration.getStandardHours();
-        if (hours != 0) {
-            return res.getQuantityString(R.plurals.joda_time_android_duration_hours, hours, hours);
+        int resId = R.plurals.joda_time_android_duration_hours;
+        int count = (int) (millis / DateTimeConstants.MILLIS_PER_HOUR);
+        if (count == 0) {
+            resId = R.plurals.joda_time_android_duration_minutes;
+            count = (int) (millis / DateTimeConstants.MILLIS_PER_MINUTE);
         }
-
-        final int minutes = (int) duration.getStandardMinutes();
-        if (minutes != 0) {
-            return res.getQuantityString(R.plurals.joda_time_android_duration_minutes, minutes, minutes);
+        if (count == 0) {
+            resId = R.plurals.joda_time_android_duration_seconds;
+            count = (int) (millis / DateTimeConstants.MILLIS_PER_SECOND);
         }
 
-        final int seconds = (int) duration.getStandardSeconds();
-        return res.getQuantityString(R.plurals.joda_time_android_duration_seconds, seconds, seconds);
+        // Formatted the same way as Resources.getQuantityString(int, int, Object...)
+        return CountTemplate.append(sb, getLocale(res), res.getQuantityString(resId, count), count);
+    }
+
+    /**
+     * @return the locale that Resources formats strings with (as in Resources.getString(int, Object...))
+     */
+    @SuppressWarnings("deprecation")
+    static Locale getLocale(Resources res) {
+        if (Build.VERSION.SDK_INT >= 24) {
+            return res.getConfiguration().getLocales().get(0);
+        }
+        return res.getConfiguration().locale;
     }
 
 }
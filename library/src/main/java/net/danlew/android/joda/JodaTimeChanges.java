@@ -0,0 +1,184 @@
+package net.danlew.android.joda;
+
+import android.content.ComponentCallbacks;
+import android.content.res.Configuration;
+import org.joda.time.DateTimeZone;
+import org.joda.time.tz.Provider;
+
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Lets you know when something changes that would invalidate cached dates or
+ * formatted text: the default time zone, the default locale, or the zone provider.
+ *
+ * There are two ways to use this.  Listeners get told about each change.  Or, for
+ * caches on hot paths, check a version counter before using the cache; each counter
+ * only ever goes up, and checking one is cheap (no locking).
+ *
+ * Changes made through the system (TIMEZONE_CHANGED, configuration changes) are
+ * noticed right away.  Changes made directly (e.g. DateTimeZone.setDefault()) are
+ * noticed the next time a version is checked.
+ */
+public final class JodaTimeChanges {
+
+    /** The default DateTimeZone changed */
+    public static final int DEFAULT_ZONE = 1;
+
+    /** The default Locale changed */
+    public static final int LOCALE = 2;
+
+    /** The DateTimeZone provider changed (so all zones are new instances) */
+    public static final int PROVIDER = 4;
+
+    /**
+     * Receives changes.  Called on whichever thread noticed the change (for default zone
+     * changes, that's usually a background thread), so hop to the main thread if you need to.
+     */
+    public interface Listener {
+
+        /**
+         * @param changes what changed; a combination of {@link #DEFAULT_ZONE},
+         * {@link #LOCALE} and {@link #PROVIDER}
+         */
+        void onChanged(int changes);
+    }
+
+    private static final CopyOnWriteArrayList<Listener> sListeners = new CopyOnWriteArrayList<Listener>();
+
+    private static final Object sLock = new Object();
+
+    private static volatile int sDefaultZoneVersion;
+
+    private static volatile int sLocaleVersion;
+
+    private static volatile int sProviderVersion;
+
+    // What things looked like at the last check; null until the first check
+    private static volatile DateTimeZone sDefaultZone;
+
+    private static volatile Locale sLocale;
+
+    private static volatile Provider sProvider;
+
+    private JodaTimeChanges() {
+        // no instances
+        throw new AssertionError();
+    }
+
+    /**
+     * @param listener the listener to add; adding the same listener twice does nothing
+     */
+    public static void addListener(Listener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        sListeners.addIfAbsent(listener);
+
+        // So that there's something to compare against when the next change comes
+        checkForChanges();
+    }
+
+    /**
+     * @param listener the listener to remove
+     */
+    public static void removeListener(Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * @return a version that goes up whenever anything changes
+     */
+    public static int getVersion() {
+        checkForChanges();
+        return sDefaultZoneVersion + sLocaleVersion + sProviderVersion;
+    }
+
+    /**
+     * @return a version that goes up whenever the default DateTimeZone changes
+     */
+    public static int getDefaultZoneVersion() {
+        checkForChanges();
+        return sDefaultZoneVersion;
+    }
+
+    /**
+     * @return a version that goes up whenever the default Locale changes
+     */
+    public static int getLocaleVersion() {
+        checkForChanges();
+        return sLocaleVersion;
+    }
+
+    /**
+     * @return a version that goes up whenever the DateTimeZone provider changes
+     */
+    public static int getProviderVersion() {
+        checkForChanges();
+        return sProviderVersion;
+    }
+
+    /**
+     * Compares everything against the last check, and tells the listeners about
+     * anything that changed.  This is cheap if nothing changed.
+     */
+    static void checkForChanges() {
+        DateTimeZone defaultZone = DateTimeZone.getDefault();
+        Locale locale = Locale.getDefault();
+        Provider provider = DateTimeZone.getProvider();
+        if (defaultZone == sDefaultZone && locale == sLocale && provider == sProvider) {
+            return;
+        }
+
+        int changes = 0;
+        synchronized (sLock) {
+            // The first check just records how things are
+            boolean first = sDefaultZone == null;
+
+            if (!defaultZone.equals(sDefaultZone) && !first) {
+                changes |= DEFAULT_ZONE;
+                sDefaultZoneVersion++;
+            }
+            sDefaultZone = defaultZone;
+
+            if (!locale.equals(sLocale) && !first) {
+                changes |= LOCALE;
+                sLocaleVersion++;
+            }
+            sLocale = locale;
+
+            if (provider != sProvider && !first) {
+                changes |= PROVIDER;
+                sProviderVersion++;
+            }
+            sProvider = provider;
+        }
+
+        if ((changes & PROVIDER) != 0) {
+            // Cached conversions are from the old provider
+            TimeZoneConverter.clear();
+        }
+
+        if (changes != 0) {
+            for (Listener listener : sListeners) {
+                listener.onChanged(changes);
+            }
+        }
+    }
+
+    /**
+     * Notices locale changes as soon as the configuration changes.
+     */
+    static final class ConfigurationWatcher implements ComponentCallbacks {
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+            checkForChanges();
+        }
+
+        @Override
+        public void onLowMemory() {
+            // Not interested
+        }
+    }
+}
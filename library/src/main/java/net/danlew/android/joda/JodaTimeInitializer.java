@@ -3,37 +3,148 @@ package net.danlew.android.joda;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.startup.Initializer;
 
 import org.joda.time.DateTimeZone;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 
 public class JodaTimeInitializer implements Initializer<Object> {
 
+    /**
+     * Application meta-data listing which secondary processes should initialize lazily:
+     * comma-separated process names (":name" is short for "[package]:name"), or "*" for
+     * all of them.  In those processes, the zone data isn't read until a zone is first
+     * needed.
+     */
+    static final String META_DATA_LAZY_PROCESSES = "net.danlew.android.joda.LazyProcesses";
+
     @NonNull
     @Override
     public Object create(@NonNull Context context) {
+        final Context appContext = context.getApplicationContext();
+        boolean lazy = isLazyProcess(appContext);
+
+        ResourceZoneInfoProvider provider;
         try {
-            DateTimeZone.setProvider(new ResourceZoneInfoProvider(context));
+            provider = new ResourceZoneInfoProvider(context, lazy);
+            DateTimeZone.setProvider(provider);
         } catch (IOException e) {
             throw new RuntimeException("Could not read ZoneInfoMap. You are probably using Proguard wrong.", e);
         }
 
-        context.getApplicationContext()
-                .registerReceiver(new TimeZoneChangedReceiver(), new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+        registerCallbacks(appContext, provider);
 
         return new Object();
     }
 
+    /**
+     * Registers for everything that affects the provider.
+     *
+     * The timezone and configuration callbacks are registered right away, even for a lazy
+     * provider: UTC (and formatting in it) works without loading anything, so the default
+     * zone and locale can be in use long before the provider is.  Only the cache trimmer
+     * waits until the provider is first used, since there's nothing to trim before then.
+     */
+    static void registerCallbacks(final Context appContext, ResourceZoneInfoProvider provider) {
+        appContext.registerReceiver(new TimeZoneChangedReceiver(), new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+        appContext.registerComponentCallbacks(new JodaTimeChanges.ConfigurationWatcher());
+
+        provider.setOnFirstUse(new Runnable() {
+            @Override
+            public void run() {
+                appContext.registerComponentCallbacks(new ZoneCacheTrimmer());
+            }
+        });
+    }
+
     @NonNull
     @Override
     public List<Class<? extends Initializer<?>>> dependencies() {
         return Collections.emptyList();
     }
 
+    /**
+     * @return true if this process is listed in the lazy processes meta-data (the main
+     * process never is, which also means it doesn't have to look up the meta-data)
+     */
+    static boolean isLazyProcess(Context appContext) {
+        ApplicationInfo appInfo = appContext.getApplicationInfo();
+        String processName = getProcessName();
+        if (processName == null || processName.equals(appInfo.processName)) {
+            return false;
+        }
+
+        String lazyProcesses;
+        try {
+            Bundle metaData = appContext.getPackageManager()
+                .getApplicationInfo(appContext.getPackageName(), PackageManager.GET_META_DATA).metaData;
+            lazyProcesses = metaData != null ? metaData.getString(META_DATA_LAZY_PROCESSES) : null;
+        }
+        catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+
+        if (lazyProcesses == null) {
+            return false;
+        }
+
+        for (String name : lazyProcesses.split(",")) {
+            name = name.trim();
+            if (name.startsWith(":")) {
+                name = appContext.getPackageName() + name;
+            }
+
+            if (name.equals("*") || name.equals(processName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the name of the current process, or null if it can't be determined
+     */
+    private static String getProcessName() {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream("/proc/self/cmdline");
+            byte[] buffer = new byte[256];
+            int length = 0;
+            int read;
+            while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) > 0) {
+                length += read;
+            }
+
+            // The name is null-terminated
+            int end = 0;
+            while (end < length && buffer[end] != 0) {
+                end++;
+            }
+            return end > 0 ? new String(buffer, 0, end, "UTF-8") : null;
+        }
+        catch (IOException e) {
+            Log.w("joda-time-android", "Could not determine process name", e);
+            return null;
+        }
+        finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            }
+            catch (IOException e) {
+            }
+        }
+    }
+
 }
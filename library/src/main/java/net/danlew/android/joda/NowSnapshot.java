@@ -0,0 +1,148 @@
+package net.danlew.android.joda;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+
+import java.io.Closeable;
+
+/**
+ * Freezes "now" (and the default zone) for everything {@link DateUtils} and
+ * {@link RelativeTimeFormatter} format on the current thread, until it's closed.
+ *
+ * Without a snapshot, every call reads the clock and the default zone again.  With one, a
+ * whole frame or list can be formatted against the same instant, so that rows can't disagree
+ * with each other (and the clock is only read once).  For example:
+ *
+ * <pre>
+ * NowSnapshot snapshot = NowSnapshot.begin();
+ * try {
+ *     // ...format every visible row...
+ * }
+ * finally {
+ *     snapshot.close();
+ * }
+ * </pre>
+ *
+ * Snapshots only affect the thread that began them.  They can be nested, but have to be closed
+ * in the reverse order they were begun.
+ */
+public final class NowSnapshot implements Closeable {
+
+    private static final ThreadLocal<NowSnapshot> sCurrent = new ThreadLocal<NowSnapshot>();
+
+    private final long mMillis;
+
+    private final DateTimeZone mZone;
+
+    private final NowSnapshot mPrevious;
+
+    private boolean mClosed;
+
+    private NowSnapshot(long millis, DateTimeZone zone, NowSnapshot previous) {
+        mMillis = millis;
+        mZone = zone;
+        mPrevious = previous;
+    }
+
+    /**
+     * Begins a snapshot of the current time (from {@link DateUtils#getClock()}) and the
+     * default zone on this thread.
+     *
+     * @return the snapshot; close it when done
+     */
+    public static NowSnapshot begin() {
+        return begin(DateUtils.getClock().getMillis());
+    }
+
+    /**
+     * Begins a snapshot that treats 'millis' as the current time on this thread.
+     *
+     * @param millis the time to use as now, in millis since the epoch
+     * @return the snapshot; close it when done
+     */
+    public static NowSnapshot begin(long millis) {
+        NowSnapshot snapshot = new NowSnapshot(millis, DateTimeZone.getDefault(), sCurrent.get());
+        sCurrent.set(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * @return the current time, in millis since the epoch
+     */
+    public long getMillis() {
+        return mMillis;
+    }
+
+    /**
+     * @return the default zone when the snapshot began
+     */
+    public DateTimeZone getZone() {
+        return mZone;
+    }
+
+    /**
+     * Ends the snapshot, going back to whatever was used before it.  Closing a snapshot
+     * twice does nothing.
+     *
+     * @throws IllegalStateException if called on another thread, or if a snapshot begun
+     * after this one hasn't been closed yet
+     */
+    @Override
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+
+        if (sCurrent.get() != this) {
+            throw new IllegalStateException("Snapshots must be closed on the thread that began them, "
+                + "in the reverse order they were begun");
+        }
+
+        mClosed = true;
+        if (mPrevious != null) {
+            sCurrent.set(mPrevious);
+        }
+        else {
+            sCurrent.remove();
+        }
+    }
+
+    /**
+     * @return the current time, from this thread's snapshot if it has one
+     */
+    static long currentTimeMillis() {
+        NowSnapshot snapshot = sCurrent.get();
+        return snapshot != null ? snapshot.mMillis : DateUtils.getClock().getMillis();
+    }
+
+    /**
+     * @return the default zone, from this thread's snapshot if it has one
+     */
+    static DateTimeZone currentZone() {
+        NowSnapshot snapshot = sCurrent.get();
+        return snapshot != null ? snapshot.mZone : DateTimeZone.getDefault();
+    }
+
+    /**
+     * @return the equivalent of DateTime.now()
+     */
+    static DateTime now() {
+        NowSnapshot snapshot = sCurrent.get();
+        if (snapshot != null) {
+            return new DateTime(snapshot.mMillis, snapshot.mZone);
+        }
+        return new DateTime(DateUtils.getClock().getMillis(), DateTimeZone.getDefault());
+    }
+
+    /**
+     * @return the equivalent of LocalDate.now()
+     */
+    static LocalDate today() {
+        NowSnapshot snapshot = sCurrent.get();
+        if (snapshot != null) {
+            return new LocalDate(snapshot.mMillis, snapshot.mZone);
+        }
+        return new LocalDate(DateUtils.getClock().getMillis(), DateTimeZone.getDefault());
+    }
+}
@@ -0,0 +1,160 @@
+package net.danlew.android.joda;
+
+import org.joda.time.DateTimeZone;
+
+/**
+ * Wraps a DateTimeZone with a precomputed table of its transitions over a window of
+ * years, so that offset lookups in that window are an array lookup plus (at most) a
+ * step or two over a primitive array (rather than a search over transitions followed
+ * by evaluating recurring DST rules).  Outside the window, everything falls back to the
+ * original zone.
+ *
+ * Results are identical to the wrapped zone's.
+ */
+final class OffsetTableDateTimeZone extends DateTimeZone {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Instants are bucketed by 2^32 millis (about 50 days), so a bucket rarely has more than one transition */
+    private static final int BUCKET_SHIFT = 32;
+
+    /**
+     * Wraps a zone in an offset table covering the given years.
+     *
+     * @param zone the zone to wrap
+     * @param startYear the first year (inclusive) to precompute, in UTC
+     * @param endYear the last year (inclusive) to precompute, in UTC
+     * @return the wrapped zone, or the original zone if there'd be no point wrapping it
+     */
+    static DateTimeZone forZone(DateTimeZone zone, int startYear, int endYear) {
+        if (zone.isFixed() || zone instanceof OffsetTableDateTimeZone || startYear > endYear) {
+            return zone;
+        }
+
+        return new OffsetTableDateTimeZone(zone, ZoneTransitions.collect(zone, startYear, endYear));
+    }
+
+    private final DateTimeZone iZone;
+
+    /** Where the table starts (inclusive); also the first element of iTransitions */
+    private final long iStart;
+
+    /** Where the table ends (exclusive) */
+    private final long iEnd;
+
+    /** The start of each period in the table; all but the first are actual transitions */
+    private final long[] iTransitions;
+
+    private final int[] iOffsets;
+
+    private final int[] iStandardOffsets;
+
+    private final String[] iNameKeys;
+
+    /** The index of the period containing the start of each bucket */
+    private final int[] iBuckets;
+
+    private OffsetTableDateTimeZone(DateTimeZone zone, ZoneTransitions transitions) {
+        super(zone.getID());
+        iZone = zone;
+        iStart = transitions.getStart();
+        iEnd = transitions.mEnd;
+        iTransitions = transitions.mInstants;
+        iOffsets = transitions.mOffsets;
+        iStandardOffsets = transitions.mStandardOffsets;
+        iNameKeys = transitions.mNameKeys;
+
+        iBuckets = new int[(int) ((iEnd - 1 - iStart) >>> BUCKET_SHIFT) + 1];
+        int index = 0;
+        for (int a = 0; a < iBuckets.length; a++) {
+            long bucketStart = iStart + ((long) a << BUCKET_SHIFT);
+            while (index + 1 < iTransitions.length && iTransitions[index + 1] <= bucketStart) {
+                index++;
+            }
+            iBuckets[a] = index;
+        }
+    }
+
+    /**
+     * @return the zone this wraps
+     */
+    DateTimeZone getWrappedZone() {
+        return iZone;
+    }
+
+    /**
+     * @return the index of the period containing the instant, which must be within the table
+     */
+    private int indexOf(long instant) {
+        long[] transitions = iTransitions;
+        int index = iBuckets[(int) ((instant - iStart) >>> BUCKET_SHIFT)];
+        while (index + 1 < transitions.length && transitions[index + 1] <= instant) {
+            index++;
+        }
+        return index;
+    }
+
+    @Override
+    public String getNameKey(long instant) {
+        if (instant >= iStart && instant < iEnd) {
+            return iNameKeys[indexOf(instant)];
+        }
+        return iZone.getNameKey(instant);
+    }
+
+    @Override
+    public int getOffset(long instant) {
+        if (instant >= iStart && instant < iEnd) {
+            return iOffsets[indexOf(instant)];
+        }
+        return iZone.getOffset(instant);
+    }
+
+    @Override
+    public int getStandardOffset(long instant) {
+        if (instant >= iStart && instant < iEnd) {
+            return iStandardOffsets[indexOf(instant)];
+        }
+        return iZone.getStandardOffset(instant);
+    }
+
+    @Override
+    public boolean isFixed() {
+        return false;
+    }
+
+    @Override
+    public long nextTransition(long instant) {
+        if (instant >= iStart && instant < iEnd) {
+            int index = indexOf(instant) + 1;
+            if (index < iTransitions.length) {
+                return iTransitions[index];
+            }
+        }
+        return iZone.nextTransition(instant);
+    }
+
+    @Override
+    public long previousTransition(long instant) {
+        // Not performance critical, and has its own quirks, so leave it to the real zone
+        return iZone.previousTransition(instant);
+    }
+
+    @Override
+    public int hashCode() {
+        return iZone.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        // Only equal to other tables (plain zones don't know about tables, so anything else
+        // wouldn't be symmetric); the provider keeps giving a zone a table once it has one
+        if (obj instanceof OffsetTableDateTimeZone) {
+            return iZone.equals(((OffsetTableDateTimeZone) obj).iZone);
+        }
+        return false;
+    }
+}
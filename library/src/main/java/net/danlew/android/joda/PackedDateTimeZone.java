@@ -0,0 +1,170 @@
+package net.danlew.android.joda;
+
+import org.joda.time.DateTimeZone;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view of a zone whose transitions live in a SharedTransitionStore.
+ *
+ * Results are identical to the original zone's.  Instants outside of the store's
+ * window are answered by the original zone, which is loaded again on demand.
+ */
+final class PackedDateTimeZone extends DateTimeZone {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SharedTransitionStore iStore;
+
+    /** Index of this zone's first record in the store */
+    private final int iFirst;
+
+    /** Index of this zone's last record in the store */
+    private final int iLast;
+
+    /** Where the window starts (inclusive) */
+    private final long iStart;
+
+    /** Where the window ends (exclusive) */
+    private final long iEnd;
+
+    /** The original zone, loaded only if we need to answer for an instant outside the window */
+    private volatile DateTimeZone iFullZone;
+
+    PackedDateTimeZone(SharedTransitionStore store, String id, int first, int count, long end) {
+        super(id);
+        iStore = store;
+        iFirst = first;
+        iLast = first + count - 1;
+        iStart = store.getBuffer().getLong(first * SharedTransitionStore.RECORD_SIZE);
+        iEnd = end;
+    }
+
+    /**
+     * @return the position in the store of the record containing the instant, which must be within the window
+     */
+    private int positionOf(ByteBuffer buffer, long instant) {
+        int low = iFirst;
+        int high = iLast;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (buffer.getLong(mid * SharedTransitionStore.RECORD_SIZE) <= instant) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return low * SharedTransitionStore.RECORD_SIZE;
+    }
+
+    private DateTimeZone getFullZone() {
+        DateTimeZone fullZone = iFullZone;
+        if (fullZone == null) {
+            fullZone = iStore.loadFallbackZone(getID());
+            if (fullZone == null) {
+                throw new IllegalStateException("Could not load zone \"" + getID() + "\"");
+            }
+            iFullZone = fullZone;
+        }
+        return fullZone;
+    }
+
+    @Override
+    public String getNameKey(long instant) {
+        if (instant >= iStart && instant < iEnd) {
+            ByteBuffer buffer = iStore.getBuffer();
+            return iStore.getNameKey(buffer.getInt(positionOf(buffer, instant) + 16));
+        }
+        return getFullZone().getNameKey(instant);
+    }
+
+    @Override
+    public int getOffset(long instant) {
+        if (instant >= iStart && instant < iEnd) {
+            ByteBuffer buffer = iStore.getBuffer();
+            return buffer.getInt(positionOf(buffer, instant) + 8);
+        }
+        return getFullZone().getOffset(instant);
+    }
+
+    @Override
+    public int getStandardOffset(long instant) {
+        if (instant >= iStart && instant < iEnd) {
+            ByteBuffer buffer = iStore.getBuffer();
+            return buffer.getInt(positionOf(buffer, instant) + 12);
+        }
+        return getFullZone().getStandardOffset(instant);
+    }
+
+    @Override
+    public boolean isFixed() {
+        return false;
+    }
+
+    @Override
+    public long nextTransition(long instant) {
+        if (instant >= iStart && instant < iEnd) {
+            ByteBuffer buffer = iStore.getBuffer();
+            int position = positionOf(buffer, instant) + SharedTransitionStore.RECORD_SIZE;
+            if (position <= iLast * SharedTransitionStore.RECORD_SIZE) {
+                return buffer.getLong(position);
+            }
+        }
+        return getFullZone().nextTransition(instant);
+    }
+
+    @Override
+    public long previousTransition(long instant) {
+        // Not performance critical, and has its own quirks, so leave it to the real zone
+        return getFullZone().previousTransition(instant);
+    }
+
+    @Override
+    public int hashCode() {
+        return getID().hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof PackedDateTimeZone) {
+            PackedDateTimeZone other = (PackedDateTimeZone) obj;
+            if (!getID().equals(other.getID())) {
+                return false;
+            }
+
+            // A store only packs each zone once; otherwise (e.g., the store was replaced and the
+            // zone loaded again), compare the transitions themselves
+            return iStore == other.iStore || transitionsEqual(other);
+        }
+        return false;
+    }
+
+    private boolean transitionsEqual(PackedDateTimeZone other) {
+        if (iStart != other.iStart || iEnd != other.iEnd || iLast - iFirst != other.iLast - other.iFirst) {
+            return false;
+        }
+
+        ByteBuffer buffer = iStore.getBuffer();
+        ByteBuffer otherBuffer = other.iStore.getBuffer();
+        for (int a = 0; a <= iLast - iFirst; a++) {
+            int position = (iFirst + a) * SharedTransitionStore.RECORD_SIZE;
+            int otherPosition = (other.iFirst + a) * SharedTransitionStore.RECORD_SIZE;
+            if (buffer.getLong(position) != otherBuffer.getLong(otherPosition)
+                || buffer.getInt(position + 8) != otherBuffer.getInt(otherPosition + 8)
+                || buffer.getInt(position + 12) != otherBuffer.getInt(otherPosition + 12)) {
+                return false;
+            }
+
+            String nameKey = iStore.getNameKey(buffer.getInt(position + 16));
+            String otherNameKey = other.iStore.getNameKey(otherBuffer.getInt(otherPosition + 16));
+            if (nameKey == null ? otherNameKey != null : !nameKey.equals(otherNameKey)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
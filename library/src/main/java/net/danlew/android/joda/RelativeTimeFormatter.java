@@ -0,0 +1,314 @@
+package net.danlew.android.joda;
+
+import android.content.Context;
+import android.content.res.Resources;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.DateTimeZone;
+import org.joda.time.ReadableDuration;
+import org.joda.time.ReadableInstant;
+import org.joda.time.ReadablePartial;
+import org.joda.time.ReadablePeriod;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Formats relative times ("3 minutes ago", "in 2 days") and durations the same way as
+ * {@link DateUtils}, but remembers what it has formatted so that repeated calls are cheap.
+ *
+ * DateUtils has to look up the plurals resource and format it on every call.  Since there are
+ * only so many relative times (nothing past "6 days ago"), this caches the text for each
+ * resource and count.  The cache is thrown away whenever the resources' locale or the default
+ * Locale changes, so there's no need to recreate the formatter on configuration changes.
+ *
+ * Create one and keep it around (e.g., one per screen, or one for the app); it's thread-safe.
+ * It holds onto the Context, so use the application Context if it outlives an Activity.
+ */
+public final class RelativeTimeFormatter {
+
+    // Counts at or above this are formatted every time (relative times never get that high)
+    private static final int MAX_CACHED_COUNT = 64;
+
+    // Cached after the relative time plurals
+    private static final int[] DURATION_PLURALS = {
+        R.plurals.joda_time_android_duration_hours,
+        R.plurals.joda_time_android_duration_minutes,
+        R.plurals.joda_time_android_duration_seconds,
+    };
+
+    private static final int DURATION_HOURS = RelativeTimeSpan.PLURALS_COUNT;
+    private static final int DURATION_MINUTES = DURATION_HOURS + 1;
+    private static final int DURATION_SECONDS = DURATION_HOURS + 2;
+
+    private final Context mContext;
+
+    private final Resources mResources;
+
+    private volatile Strings mStrings;
+
+    /**
+     * @param context the context to get resources from
+     */
+    public RelativeTimeFormatter(Context context) {
+        if (context == null) {
+            throw new IllegalArgumentException("context must not be null");
+        }
+        mContext = context;
+        mResources = context.getResources();
+    }
+
+    /**
+     * Returns a string describing 'time' as a time relative to the current time.
+     *
+     * Missing fields from 'time' are filled in with values from the current time.
+     *
+     * @see DateUtils#getRelativeTimeSpanString(Context, ReadablePartial)
+     */
+    public CharSequence getRelativeTimeSpanString(ReadablePartial time) {
+        return getRelativeTimeSpanString(time.toDateTime(NowSnapshot.now()));
+    }
+
+    /**
+     * Returns a string describing 'time' as a time relative to the current time.
+     *
+     * @see DateUtils#getRelativeTimeSpanString(Context, ReadableInstant)
+     */
+    public CharSequence getRelativeTimeSpanString(ReadableInstant time) {
+        int flags = DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_YEAR | DateUtils.FORMAT_ABBREV_MONTH;
+        return getRelativeTimeSpanString(time, flags);
+    }
+
+    /**
+     * Returns a string describing 'time' as a time relative to the current time.
+     *
+     * Missing fields from 'time' are filled in with values from the current time.
+     *
+     * @see DateUtils#getRelativeTimeSpanString(Context, ReadablePartial, int)
+     */
+    public CharSequence getRelativeTimeSpanString(ReadablePartial time, int flags) {
+        return getRelativeTimeSpanString(time.toDateTime(NowSnapshot.now()), flags);
+    }
+
+    /**
+     * Returns a string describing 'time' as a time relative to the current time.
+     *
+     * @see DateUtils#getRelativeTimeSpanString(Context, ReadableInstant, int)
+     */
+    public CharSequence getRelativeTimeSpanString(ReadableInstant time, int flags) {
+        long span = RelativeTimeSpan.compute(time, NowSnapshot.currentTimeMillis());
+        if (span == RelativeTimeSpan.NONE) {
+            return DateUtils.formatDateRange(mContext, time, time, flags);
+        }
+
+        return getString(getStrings(), span, isAbbrevRelative(flags));
+    }
+
+    /**
+     * Formats a batch of times (e.g., every row in a list) relative to the current time,
+     * as per {@link #getRelativeTimeSpanString(ReadableInstant, int)}.
+     *
+     * The current time is only read once, so all of the times are relative to the same
+     * "now" (and rows can't disagree with each other by a second).
+     *
+     * @param times the times to describe, in millis
+     * @param zone the zone the times are in
+     * @param flags a bit mask for formatting options, usually FORMAT_ABBREV_RELATIVE
+     * @return the strings, in the same order as the times
+     */
+    public CharSequence[] getRelativeTimeSpanStrings(long[] times, DateTimeZone zone, int flags) {
+        CharSequence[] out = new CharSequence[times.length];
+        getRelativeTimeSpanStrings(times, zone, flags, out);
+        return out;
+    }
+
+    /**
+     * Formats a batch of times relative to the current time into an existing array.
+     *
+     * @param out where to put the strings, in the same order as the times; must be at least
+     * as long as times
+     * @see #getRelativeTimeSpanStrings(long[], DateTimeZone, int)
+     */
+    public void getRelativeTimeSpanStrings(long[] times, DateTimeZone zone, int flags, CharSequence[] out) {
+        if (out.length < times.length) {
+            throw new IllegalArgumentException("out must be at least as long as times");
+        }
+
+        long now = NowSnapshot.currentTimeMillis();
+        boolean abbrevRelative = isAbbrevRelative(flags);
+        Strings strings = getStrings();
+        for (int i = 0; i < times.length; i++) {
+            long time = times[i];
+            long span = RelativeTimeSpan.compute(time, zone, now);
+            if (span == RelativeTimeSpan.NONE) {
+                long localMillis = time + zone.getOffset(time);
+                out[i] = DateUtils.formatDateRange(mContext, localMillis, localMillis, flags);
+            }
+            else {
+                out[i] = getString(strings, span, abbrevRelative);
+            }
+        }
+    }
+
+    /**
+     * Formats a batch of times relative to the current time.
+     *
+     * @param times the times to describe
+     * @param flags a bit mask for formatting options, usually FORMAT_ABBREV_RELATIVE
+     * @return the strings, in the same order as the times
+     * @see #getRelativeTimeSpanStrings(long[], DateTimeZone, int)
+     */
+    public CharSequence[] getRelativeTimeSpanStrings(List<? extends ReadableInstant> times, int flags) {
+        CharSequence[] out = new CharSequence[times.size()];
+
+        long now = NowSnapshot.currentTimeMillis();
+        boolean abbrevRelative = isAbbrevRelative(flags);
+        Strings strings = getStrings();
+        for (int i = 0; i < out.length; i++) {
+            ReadableInstant time = times.get(i);
+            long span = RelativeTimeSpan.compute(time, now);
+            if (span == RelativeTimeSpan.NONE) {
+                out[i] = DateUtils.formatDateRange(mContext, time, time, flags);
+            }
+            else {
+                out[i] = getString(strings, span, abbrevRelative);
+            }
+        }
+
+        return out;
+    }
+
+    /**
+     * Returns a relative time string to display the time expressed by millis.
+     *
+     * Missing fields from 'time' are filled in with values from the current time.
+     *
+     * @see DateUtils#getRelativeTimeSpanString(Context, ReadablePartial, boolean)
+     */
+    public CharSequence getRelativeTimeSpanString(ReadablePartial time, boolean withPreposition) {
+        return DateUtils.getRelativeTimeSpanString(mContext, time, withPreposition);
+    }
+
+    /**
+     * Returns a relative time string to display the time expressed by millis.
+     *
+     * @see DateUtils#getRelativeTimeSpanString(Context, ReadableInstant, boolean)
+     */
+    public CharSequence getRelativeTimeSpanString(ReadableInstant time, boolean withPreposition) {
+        return DateUtils.getRelativeTimeSpanString(mContext, time, withPreposition);
+    }
+
+    /**
+     * Return string describing the time until/elapsed time since 'time' formatted like
+     * "[relative time/date], [time]".
+     *
+     * @throws IllegalArgumentException if using a ReadablePartial without a time component
+     * @see DateUtils#getRelativeDateTimeString(Context, ReadablePartial, ReadablePeriod, int)
+     */
+    public CharSequence getRelativeDateTimeString(ReadablePartial time, ReadablePeriod transitionResolution,
+                                                  int flags) {
+        DateUtils.checkSupportsTime(time);
+        return getRelativeDateTimeString(time.toDateTime(NowSnapshot.now()), transitionResolution, flags);
+    }
+
+    /**
+     * Return string describing the time until/elapsed time since 'time' formatted like
+     * "[relative time/date], [time]".
+     *
+     * @see DateUtils#getRelativeDateTimeString(Context, ReadableInstant, ReadablePeriod, int)
+     */
+    public CharSequence getRelativeDateTimeString(ReadableInstant time, ReadablePeriod transitionResolution,
+                                                  int flags) {
+        return DateUtils.getRelativeDateTimeString(mContext, new StringBuilder(), time, transitionResolution, flags, this)
+            .toString();
+    }
+
+    /**
+     * Return given duration in a human-friendly format. For example, "4
+     * minutes" or "1 second". Returns only largest meaningful unit of time,
+     * from seconds up to hours.
+     *
+     * @see DateUtils#formatDuration(Context, ReadableDuration)
+     */
+    public CharSequence formatDuration(ReadableDuration readableDuration) {
+        long millis = readableDuration.getMillis();
+
+        final int hours = (int) (millis / DateTimeConstants.MILLIS_PER_HOUR);
+        if (hours != 0) {
+            return getString(getStrings(), DURATION_HOURS, DURATION_PLURALS[0], hours);
+        }
+
+        final int minutes = (int) (millis / DateTimeConstants.MILLIS_PER_MINUTE);
+        if (minutes != 0) {
+            return getString(getStrings(), DURATION_MINUTES, DURATION_PLURALS[1], minutes);
+        }
+
+        final int seconds = (int) (millis / DateTimeConstants.MILLIS_PER_SECOND);
+        return getString(getStrings(), DURATION_SECONDS, DURATION_PLURALS[2], seconds);
+    }
+
+    private static boolean isAbbrevRelative(int flags) {
+        return (flags & (DateUtils.FORMAT_ABBREV_RELATIVE | DateUtils.FORMAT_ABBREV_ALL)) != 0;
+    }
+
+    private String getString(Strings strings, long span, boolean abbrevRelative) {
+        return getString(strings, RelativeTimeSpan.getPluralsIndex(span, abbrevRelative),
+            RelativeTimeSpan.getPluralsResId(span, abbrevRelative), RelativeTimeSpan.getCount(span));
+    }
+
+    private String getString(Strings strings, int index, int resId, int count) {
+        if (count < 0 || count >= MAX_CACHED_COUNT) {
+            return format(index, resId, count);
+        }
+
+        AtomicReferenceArray<String> cache = strings.mStrings;
+        int slot = index * MAX_CACHED_COUNT + count;
+        String string = cache.get(slot);
+        if (string == null) {
+            string = format(index, resId, count);
+            cache.set(slot, string);
+        }
+        return string;
+    }
+
+    private String format(int index, int resId, int count) {
+        if (index < RelativeTimeSpan.PLURALS_COUNT) {
+            return CountTemplate.format(mResources.getQuantityString(resId, count), count);
+        }
+        return mResources.getQuantityString(resId, count, count);
+    }
+
+    /**
+     * @return the cached strings, after throwing them away if the locale changed
+     */
+    private Strings getStrings() {
+        Locale locale = DateUtils.getLocale(mResources);
+        int localeVersion = JodaTimeChanges.getLocaleVersion();
+
+        Strings strings = mStrings;
+        if (strings == null || strings.mLocaleVersion != localeVersion
+            || (locale != strings.mLocale && (locale == null || !locale.equals(strings.mLocale)))) {
+            strings = new Strings(locale, localeVersion);
+            mStrings = strings;
+        }
+        return strings;
+    }
+
+    /**
+     * The strings formatted for one locale.
+     */
+    private static final class Strings {
+
+        final Locale mLocale;
+
+        final int mLocaleVersion;
+
+        final AtomicReferenceArray<String> mStrings =
+            new AtomicReferenceArray<String>((RelativeTimeSpan.PLURALS_COUNT + DURATION_PLURALS.length) * MAX_CACHED_COUNT);
+
+        Strings(Locale locale, int localeVersion) {
+            mLocale = locale;
+            mLocaleVersion = localeVersion;
+        }
+    }
+}
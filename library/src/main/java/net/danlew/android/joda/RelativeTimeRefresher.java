@@ -0,0 +1,342 @@
+package net.danlew.android.joda;
+
+import android.os.Handler;
+import android.os.Looper;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.ReadableInstant;
+import org.joda.time.ReadablePeriod;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Tells you when relative times on screen ("3 minutes ago", "in 2 days") need to be
+ * formatted again, using one timer for all of them.
+ *
+ * Instead of each view posting its own delayed refresh every second or minute, register
+ * each displayed time (with the flags it was formatted with).  The refresher works out when
+ * each one's text will next change, and wakes up once for whichever is first, calling back
+ * every entry that's due at that point.  Wake ups can also be aligned to minutes, so that
+ * entries changing within the same minute are all refreshed together.
+ *
+ * Everything happens on the Handler's thread (the main thread, by default), and all methods
+ * must be called from that thread.  Call {@link #start()} and {@link #stop()} along with the
+ * screen's lifecycle (e.g., onStart() and onStop()); nothing is scheduled while stopped.
+ *
+ * Callbacks are called inside a {@link NowSnapshot}, so that everything formatted in them is
+ * relative to the same "now" that the refresh was worked out with.
+ */
+public final class RelativeTimeRefresher {
+
+    /** Refresh as soon as text changes (which is always on a second) */
+    public static final int ALIGN_SECOND = DateTimeConstants.MILLIS_PER_SECOND;
+
+    /** Refresh on the minute, so that fewer wake ups are needed (at the cost of text being up to a minute late) */
+    public static final int ALIGN_MINUTE = DateTimeConstants.MILLIS_PER_MINUTE;
+
+    /**
+     * Called when the text for a registered time has changed.
+     */
+    public interface Callback {
+
+        /**
+         * @param time the time that was registered, which should be formatted again
+         */
+        void onRefresh(ReadableInstant time);
+    }
+
+    private static final Comparator<Entry> NEXT_CHANGE_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            return lhs.mNextChange < rhs.mNextChange ? -1 : (lhs.mNextChange == rhs.mNextChange ? 0 : 1);
+        }
+    };
+
+    private final Handler mHandler;
+
+    private final int mAlignment;
+
+    private final Map<Callback, Entry> mEntries = new HashMap<Callback, Entry>();
+
+    // Only entries whose text will ever change
+    private final PriorityQueue<Entry> mQueue = new PriorityQueue<Entry>(16, NEXT_CHANGE_ORDER);
+
+    private boolean mStarted;
+
+    // The default zone version when last refreshed, so that zone changes refresh everything
+    private int mDefaultZoneVersion;
+
+    // When the handler is set to wake up, or Long.MAX_VALUE if it isn't
+    private long mScheduledAt = Long.MAX_VALUE;
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            mScheduledAt = Long.MAX_VALUE;
+            refresh();
+        }
+    };
+
+    private final Runnable mRefreshNow = new Runnable() {
+        @Override
+        public void run() {
+            unschedule();
+            refresh();
+        }
+    };
+
+    private final JodaTimeChanges.Listener mChangesListener = new JodaTimeChanges.Listener() {
+        @Override
+        public void onChanged(int changes) {
+            if ((changes & JodaTimeChanges.DEFAULT_ZONE) != 0) {
+                // Probably not on the handler's thread
+                mHandler.post(mRefreshNow);
+            }
+        }
+    };
+
+    /**
+     * Creates a refresher that runs on the main thread and refreshes as soon as text changes.
+     */
+    public RelativeTimeRefresher() {
+        this(new Handler(Looper.getMainLooper()), ALIGN_SECOND);
+    }
+
+    /**
+     * @param handler the handler to schedule refreshes (and call callbacks) on
+     * @param alignment either {@link #ALIGN_SECOND} or {@link #ALIGN_MINUTE}
+     */
+    public RelativeTimeRefresher(Handler handler, int alignment) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler must not be null");
+        }
+        if (alignment != ALIGN_SECOND && alignment != ALIGN_MINUTE) {
+            throw new IllegalArgumentException("alignment must be ALIGN_SECOND or ALIGN_MINUTE");
+        }
+        mHandler = handler;
+        mAlignment = alignment;
+        mDefaultZoneVersion = JodaTimeChanges.getDefaultZoneVersion();
+    }
+
+    /**
+     * Registers a time formatted with
+     * {@link DateUtils#getRelativeTimeSpanString(android.content.Context, ReadableInstant, int)}.
+     *
+     * Register right after formatting it.  If the callback was already registered (e.g., a
+     * recycled view), its old time is replaced.
+     *
+     * @param callback what to call when the text changes
+     * @param time the time being displayed
+     * @param flags the flags it was formatted with
+     */
+    public void register(Callback callback, ReadableInstant time, int flags) {
+        register(new Entry(callback, time, false, null, flags));
+    }
+
+    /**
+     * Registers a time formatted with
+     * {@link DateUtils#getRelativeDateTimeString(android.content.Context, ReadableInstant, ReadablePeriod, int)}.
+     *
+     * Register right after formatting it.  If the callback was already registered (e.g., a
+     * recycled view), its old time is replaced.
+     *
+     * @param callback what to call when the text changes
+     * @param time the time being displayed
+     * @param transitionResolution the transition resolution it was formatted with
+     * @param flags the flags it was formatted with
+     */
+    public void register(Callback callback, ReadableInstant time, ReadablePeriod transitionResolution, int flags) {
+        register(new Entry(callback, time, true, transitionResolution, flags));
+    }
+
+    private void register(Entry entry) {
+        if (entry.mCallback == null) {
+            throw new IllegalArgumentException("callback must not be null");
+        }
+        if (entry.mTime == null) {
+            throw new IllegalArgumentException("time must not be null");
+        }
+
+        unregister(entry.mCallback);
+
+        entry.mNextChange = entry.getNextChange();
+        mEntries.put(entry.mCallback, entry);
+        enqueue(entry);
+        schedule();
+    }
+
+    /**
+     * @param callback the callback to stop refreshing; does nothing if it isn't registered
+     */
+    public void unregister(Callback callback) {
+        Entry entry = mEntries.remove(callback);
+        if (entry != null) {
+            mQueue.remove(entry);
+        }
+    }
+
+    /**
+     * Unregisters everything.
+     */
+    public void clear() {
+        mEntries.clear();
+        mQueue.clear();
+        unschedule();
+    }
+
+    /**
+     * Starts refreshing.  Anything that changed while stopped is refreshed right away.
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        JodaTimeChanges.addListener(mChangesListener);
+        mHandler.post(mRefreshNow);
+    }
+
+    /**
+     * Stops refreshing (registered times are kept until {@link #start()} is called again).
+     */
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        JodaTimeChanges.removeListener(mChangesListener);
+        unschedule();
+        mHandler.removeCallbacks(mRefreshNow);
+    }
+
+    /**
+     * @return true if between {@link #start()} and {@link #stop()}
+     */
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    /**
+     * Calls back every entry that's due (or all of them, if the default zone changed), then
+     * schedules the next refresh.
+     */
+    private void refresh() {
+        if (!mStarted) {
+            return;
+        }
+
+        NowSnapshot snapshot = NowSnapshot.begin();
+        try {
+            long now = snapshot.getMillis();
+            int defaultZoneVersion = JodaTimeChanges.getDefaultZoneVersion();
+            boolean all = defaultZoneVersion != mDefaultZoneVersion;
+            mDefaultZoneVersion = defaultZoneVersion;
+
+            List<Entry> due = new ArrayList<Entry>();
+            if (all) {
+                due.addAll(mEntries.values());
+                mQueue.clear();
+            }
+            else {
+                while (!mQueue.isEmpty() && mQueue.peek().mNextChange <= now) {
+                    due.add(mQueue.poll());
+                }
+            }
+
+            // Work out the next changes first, so that callbacks are free to (un)register
+            for (Entry entry : due) {
+                entry.mNextChange = entry.getNextChange();
+                enqueue(entry);
+            }
+
+            for (Entry entry : due) {
+                // Skip anything a previous callback unregistered
+                if (mEntries.get(entry.mCallback) == entry) {
+                    entry.mCallback.onRefresh(entry.mTime);
+                }
+            }
+        }
+        finally {
+            snapshot.close();
+        }
+
+        schedule();
+    }
+
+    private void enqueue(Entry entry) {
+        if (entry.mNextChange != Long.MAX_VALUE) {
+            mQueue.add(entry);
+        }
+    }
+
+    /**
+     * Makes sure the handler wakes up in time for the first entry.
+     */
+    private void schedule() {
+        if (!mStarted || mQueue.isEmpty()) {
+            return;
+        }
+
+        long nextChange = mQueue.peek().mNextChange;
+        long wakeAt = nextChange + floorMod(-nextChange, mAlignment);
+        if (wakeAt >= mScheduledAt) {
+            return;
+        }
+
+        unschedule();
+        mScheduledAt = wakeAt;
+        long delay = Math.max(0, wakeAt - DateUtils.getClock().getMillis());
+        mHandler.postDelayed(mRefresh, delay);
+    }
+
+    private void unschedule() {
+        if (mScheduledAt != Long.MAX_VALUE) {
+            mHandler.removeCallbacks(mRefresh);
+            mScheduledAt = Long.MAX_VALUE;
+        }
+    }
+
+    private static long floorMod(long value, int divisor) {
+        long mod = value % divisor;
+        return mod < 0 ? mod + divisor : mod;
+    }
+
+    /**
+     * One registered time.
+     */
+    private static final class Entry {
+
+        final Callback mCallback;
+
+        final ReadableInstant mTime;
+
+        // getRelativeDateTimeString() rather than getRelativeTimeSpanString()
+        final boolean mDateTime;
+
+        final ReadablePeriod mTransitionResolution;
+
+        final int mFlags;
+
+        long mNextChange;
+
+        Entry(Callback callback, ReadableInstant time, boolean dateTime, ReadablePeriod transitionResolution,
+              int flags) {
+            mCallback = callback;
+            mTime = time;
+            mDateTime = dateTime;
+            mTransitionResolution = transitionResolution;
+            mFlags = flags;
+        }
+
+        long getNextChange() {
+            if (mDateTime) {
+                return DateUtils.getRelativeDateTimeStringNextChange(mTime, mTransitionResolution, mFlags);
+            }
+            return DateUtils.getRelativeTimeSpanStringNextChange(mTime, mFlags);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package net.danlew.android.joda;
+
+import org.joda.time.DateTimeConstants;
+import org.joda.time.DateTimeZone;
+import org.joda.time.ReadableInstant;
+
+/**
+ * Works out how getRelativeTimeSpanString() describes a time relative to now ("3 minutes ago",
+ * "in 2 days") using plain millis arithmetic, so that it doesn't have to allocate any
+ * DateTimes, Intervals or Periods.
+ *
+ * The result matches counting seconds, minutes, hours, days and weeks in an Interval: seconds
+ * through hours are exact durations, while days and weeks are counted in local time (so that
+ * DST changes are accounted for).  Both times are truncated to the second first.
+ *
+ * Spans are packed into a long; use {@link #getUnit}, {@link #isPast} and {@link #getCount}
+ * to unpack them.
+ */
+final class RelativeTimeSpan {
+
+    static final int SECONDS = 0;
+    static final int MINUTES = 1;
+    static final int HOURS = 2;
+    static final int DAYS = 3;
+
+    /** Returned for spans of a week or more, which are formatted as dates instead */
+    static final long NONE = -1;
+
+    // Indexed by (unit * 4) + (past ? 2 : 0) + (abbrevRelative ? 1 : 0)
+    private static final int[] PLURALS = {
+        R.plurals.joda_time_android_in_num_seconds,
+        R.plurals.joda_time_android_abbrev_in_num_seconds,
+        R.plurals.joda_time_android_num_seconds_ago,
+        R.plurals.joda_time_android_abbrev_num_seconds_ago,
+        R.plurals.joda_time_android_in_num_minutes,
+        R.plurals.joda_time_android_abbrev_in_num_minutes,
+        R.plurals.joda_time_android_num_minutes_ago,
+        R.plurals.joda_time_android_abbrev_num_minutes_ago,
+        R.plurals.joda_time_android_in_num_hours,
+        R.plurals.joda_time_android_abbrev_in_num_hours,
+        R.plurals.joda_time_android_num_hours_ago,
+        R.plurals.joda_time_android_abbrev_num_hours_ago,
+        R.plurals.joda_time_android_in_num_days,
+        R.plurals.joda_time_android_abbrev_in_num_days,
+        R.plurals.joda_time_android_num_days_ago,
+        R.plurals.joda_time_android_abbrev_num_days_ago,
+    };
+
+    /** The number of different plurals resources that spans are described with */
+    static final int PLURALS_COUNT = PLURALS.length;
+
+    private RelativeTimeSpan() {
+        // no instances
+        throw new AssertionError();
+    }
+
+    /**
+     * @param time the time to describe
+     * @param nowMillis the current time
+     * @return the packed span, or {@link #NONE} if it's a week or more
+     */
+    static long compute(ReadableInstant time, long nowMillis) {
+        return compute(time.getMillis(), time.getZone(), nowMillis);
+    }
+
+    /**
+     * @param timeMillis the time to describe
+     * @param zone the zone to count days in
+     * @param nowMillis the current time
+     * @return the packed span, or {@link #NONE} if it's a week or more
+     */
+    static long compute(long timeMillis, DateTimeZone zone, long nowMillis) {
+        int timeOffset = zone.getOffset(timeMillis);
+        int nowOffset = zone.getOffset(nowMillis);
+
+        // Truncate to the (local) second, so we aren't off by a fraction of a second when counting
+        timeMillis -= floorMod(timeMillis + timeOffset, DateTimeConstants.MILLIS_PER_SECOND);
+        nowMillis -= floorMod(nowMillis + nowOffset, DateTimeConstants.MILLIS_PER_SECOND);
+
+        boolean past = nowMillis >= timeMillis;
+        long duration;
+        long localDuration;
+        if (past) {
+            duration = nowMillis - timeMillis;
+            localDuration = duration + nowOffset - timeOffset;
+        }
+        else {
+            duration = timeMillis - nowMillis;
+            localDuration = duration + timeOffset - nowOffset;
+        }
+
+        if (duration < DateTimeConstants.MILLIS_PER_MINUTE) {
+            return pack(SECONDS, past, duration / DateTimeConstants.MILLIS_PER_SECOND);
+        }
+        else if (duration < DateTimeConstants.MILLIS_PER_HOUR) {
+            return pack(MINUTES, past, duration / DateTimeConstants.MILLIS_PER_MINUTE);
+        }
+        else if (localDuration / DateTimeConstants.MILLIS_PER_DAY < 1) {
+            return pack(HOURS, past, duration / DateTimeConstants.MILLIS_PER_HOUR);
+        }
+        else if (localDuration / DateTimeConstants.MILLIS_PER_WEEK < 1) {
+            return pack(DAYS, past, localDuration / DateTimeConstants.MILLIS_PER_DAY);
+        }
+
+        return NONE;
+    }
+
+    /**
+     * Works out when the span between 'time' and now will next be different, which is when
+     * the text describing it will next change.
+     *
+     * This is exact, except around DST changes, when it may be early (never late).
+     *
+     * @param timeMillis the time being described
+     * @param zone the zone to count days in
+     * @param nowMillis the current time
+     * @return the next instant the span will be different at, or Long.MAX_VALUE if it never will
+     * (because it's well over a week in the past)
+     */
+    static long nextChange(long timeMillis, DateTimeZone zone, long nowMillis) {
+        long span = compute(timeMillis, zone, nowMillis);
+
+        int timeOffset = zone.getOffset(timeMillis);
+        int nowOffset = zone.getOffset(nowMillis);
+        long time = timeMillis - floorMod(timeMillis + timeOffset, DateTimeConstants.MILLIS_PER_SECOND);
+        long now = nowMillis - floorMod(nowMillis + nowOffset, DateTimeConstants.MILLIS_PER_SECOND);
+        int count = getCount(span);
+
+        // In the past, the span grows, and changes once it's reached the next threshold.  In the
+        // future, it shrinks, and changes once it's gone below the current one.  Day-based thresholds
+        // are in local time, so they assume the current offset (and stop at the next DST change).
+        long next;
+        boolean offsetMatters = false;
+        if (span == NONE) {
+            if (now >= time) {
+                // Only a big enough offset change (like skipping a day) could ever bring it back in range
+                long localDuration = now - time + nowOffset - timeOffset;
+                if (localDuration >= DateTimeConstants.MILLIS_PER_WEEK + 2L * DateTimeConstants.MILLIS_PER_DAY) {
+                    return Long.MAX_VALUE;
+                }
+                next = Long.MAX_VALUE;
+            }
+            else {
+                next = ceilToSecond(time + timeOffset - nowOffset - DateTimeConstants.MILLIS_PER_WEEK + 1, zone);
+            }
+            offsetMatters = true;
+        }
+        else if (getUnit(span) == SECONDS) {
+            next = now + DateTimeConstants.MILLIS_PER_SECOND;
+        }
+        else if (isPast(span)) {
+            switch (getUnit(span)) {
+                case MINUTES:
+                    next = time + (count + 1L) * DateTimeConstants.MILLIS_PER_MINUTE;
+                    break;
+                case HOURS:
+                    next = Math.min(time + (count + 1L) * DateTimeConstants.MILLIS_PER_HOUR,
+                        time + DateTimeConstants.MILLIS_PER_DAY - nowOffset + timeOffset);
+                    offsetMatters = true;
+                    break;
+                default:
+                    next = time + (count + 1L) * DateTimeConstants.MILLIS_PER_DAY - nowOffset + timeOffset;
+                    offsetMatters = true;
+                    break;
+            }
+            next = ceilToSecond(next, zone);
+        }
+        else {
+            switch (getUnit(span)) {
+                case MINUTES:
+                    next = time - count * (long) DateTimeConstants.MILLIS_PER_MINUTE;
+                    break;
+                case HOURS:
+                    next = time - count * (long) DateTimeConstants.MILLIS_PER_HOUR;
+                    offsetMatters = true;
+                    break;
+                default:
+                    next = time + timeOffset - nowOffset - count * (long) DateTimeConstants.MILLIS_PER_DAY;
+                    offsetMatters = true;
+                    break;
+            }
+            next = ceilToSecond(next + 1, zone);
+        }
+
+        if (offsetMatters) {
+            long transition = zone.nextTransition(nowMillis);
+            if (transition > nowMillis && transition < next) {
+                next = transition;
+            }
+        }
+
+        if (next == Long.MAX_VALUE) {
+            return next;
+        }
+        return next > nowMillis ? next : now + DateTimeConstants.MILLIS_PER_SECOND;
+    }
+
+    /**
+     * @return the first instant at or after 'millis' that's on a (local) second
+     */
+    static long ceilToSecond(long millis, DateTimeZone zone) {
+        return millis + floorMod(-(millis + zone.getOffset(millis)), DateTimeConstants.MILLIS_PER_SECOND);
+    }
+
+    /**
+     * @return one of {@link #SECONDS}, {@link #MINUTES}, {@link #HOURS} or {@link #DAYS}
+     */
+    static int getUnit(long span) {
+        return (int) (span >> 1) & 0x3;
+    }
+
+    /**
+     * @return true if the time is before now (or is now)
+     */
+    static boolean isPast(long span) {
+        return (span & 0x1) != 0;
+    }
+
+    /**
+     * @return the number of units in the span
+     */
+    static int getCount(long span) {
+        return (int) (span >>> 32);
+    }
+
+    /**
+     * @return the plurals resource that describes the span
+     */
+    static int getPluralsResId(long span, boolean abbrevRelative) {
+        return PLURALS[getPluralsIndex(span, abbrevRelative)];
+    }
+
+    /**
+     * @return an index for the plurals resource that describes the span, from 0 (inclusive)
+     * to {@link #PLURALS_COUNT} (exclusive); handy for caching
+     */
+    static int getPluralsIndex(long span, boolean abbrevRelative) {
+        return (getUnit(span) << 2) + (isPast(span) ? 2 : 0) + (abbrevRelative ? 1 : 0);
+    }
+
+    private static long pack(int unit, boolean past, long count) {
+        return (count << 32) | (unit << 1) | (past ? 1 : 0);
+    }
+
+    private static long floorMod(long value, int divisor) {
+        long mod = value % divisor;
+        return mod < 0 ? mod + divisor : mod;
+    }
+}
@@ -1,18 +1,40 @@
 package net.danlew.android.joda;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import org.joda.time.DateTimeConstants;
 import org.joda.time.DateTimeZone;
 import org.joda.time.tz.DateTimeZoneBuilder;
+import org.joda.time.tz.FixedDateTimeZone;
 import org.joda.time.tz.Provider;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.SoftReference;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A version of ZoneInfoProvider that loads its data from
@@ -26,16 +48,137 @@ public class ResourceZoneInfoProvider implements Provider {
     /** The application context, used for retrieving resources */
     private Context mAppContext;
 
-    /** Maps ids to strings or SoftReferences to DateTimeZones. */
-    private final Map<String, Object> iZoneInfoMap;
+    /** Maps ids (including aliases) to slots; null until loaded, if lazy. */
+    private volatile ZoneIndex mIndex;
+
+    /** The loaded zone for each canonical id's slot, or null if it isn't loaded; set after mIndex. */
+    private volatile AtomicReferenceArray<ZoneEntry> mEntries;
+
+    /** Run when a lazy provider is first used. */
+    private Runnable mOnFirstUse;
+
+    /**
+     * Incremented whenever a different zone is used, so we know which zones were used most recently.
+     * Only approximate, as it's updated without locking.
+     */
+    private long mUseCount;
+
+    /** Zone loads currently in progress, so that concurrent requests for one zone only load it once. */
+    private final ConcurrentMap<String, FutureTask<DateTimeZone>> mLoadsInFlight =
+        new ConcurrentHashMap<String, FutureTask<DateTimeZone>>();
+
+    /** Ids of zones which get offset tables, or null if offset tables are disabled. */
+    private volatile Set<String> mOffsetTableIds;
+
+    private volatile int mOffsetTableStartYear;
+
+    private volatile int mOffsetTableEndYear;
+
+    /**
+     * The years of the offset table each zone was given, by id.  Zones keep getting the same
+     * table when reloaded (even if offset tables were disabled since), so that they keep
+     * comparing equal to the zones in existing DateTimes.
+     */
+    private final ConcurrentMap<String, int[]> mOffsetTableYears = new ConcurrentHashMap<String, int[]>();
+
+    /** Where zone transitions get packed, or null if that's disabled. */
+    private volatile SharedTransitionStore mTransitionStore;
+
+    /**
+     * The store each packed zone was packed into, by id.  Like offset tables, zones keep
+     * coming from the same store when reloaded (even if the store was disabled or replaced
+     * since), so that they keep comparing equal to the zones in existing DateTimes.
+     */
+    private final ConcurrentMap<String, SharedTransitionStore> mPackedStores =
+        new ConcurrentHashMap<String, SharedTransitionStore>();
+
+    /** The ids dropped by the last call to trimMemory(). */
+    private volatile List<String> mTrimmedIds = Collections.emptyList();
 
     public ResourceZoneInfoProvider(Context context) throws IOException {
+        this(context, false);
+    }
+
+    /**
+     * @param context  any Context
+     * @param lazy  if true, nothing is read until the provider is first used, which is
+     * good for processes that may never touch dates (errors reading the zone index are
+     * then thrown as RuntimeExceptions on first use, rather than from here)
+     */
+    public ResourceZoneInfoProvider(Context context, boolean lazy) throws IOException {
         if (context == null) {
             throw new IllegalArgumentException("Context must not be null");
         }
 
         mAppContext = context.getApplicationContext();
-        iZoneInfoMap = loadZoneInfoMap(openResource("ZoneInfoMap"));
+        if (!lazy) {
+            loadIndex();
+        }
+    }
+
+    /**
+     * Reads the zone index and sets up the (empty) cache.
+     */
+    private void loadIndex() throws IOException {
+        ZoneIndex index = loadZoneIndex();
+        AtomicReferenceArray<ZoneEntry> entries = new AtomicReferenceArray<ZoneEntry>(index.size());
+
+        int utcIndex = index.indexOf("UTC");
+        if (utcIndex >= 0) {
+            entries.set(utcIndex, new ZoneEntry(DateTimeZone.UTC, true));
+        }
+
+        mIndex = index;
+        mEntries = entries;
+    }
+
+    /**
+     * Loads the zone index, if this is a lazy provider that hasn't been used yet.
+     */
+    private void ensureLoaded() {
+        if (mEntries != null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (mEntries == null) {
+                try {
+                    loadIndex();
+                }
+                catch (IOException ex) {
+                    throw new RuntimeException("Could not read ZoneInfoMap. You are probably using Proguard wrong.", ex);
+                }
+
+                if (mOnFirstUse != null) {
+                    mOnFirstUse.run();
+                    mOnFirstUse = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets something to run when a lazy provider is first used (or right now, if
+     * it's not lazy or has already been used).
+     *
+     * @param onFirstUse  what to run
+     */
+    void setOnFirstUse(Runnable onFirstUse) {
+        synchronized (this) {
+            if (mEntries == null) {
+                mOnFirstUse = onFirstUse;
+                return;
+            }
+        }
+        onFirstUse.run();
+    }
+
+    /**
+     * @return true if the zone index has been read (always, unless this is a lazy provider
+     * that hasn't been used yet)
+     */
+    boolean isLoaded() {
+        return mEntries != null;
     }
 
     //-----------------------------------------------------------------------
@@ -51,41 +194,378 @@ public class ResourceZoneInfoProvider implements Provider {
             return null;
         }
 
-        Object obj = iZoneInfoMap.get(id);
-        if (obj == null) {
+        // UTC is always DateTimeZone.UTC, so there's no need to load anything (which also lets
+        // DateTimeZone.setProvider() check a lazy provider without loading it)
+        if (id.equals("UTC")) {
+            return DateTimeZone.UTC;
+        }
+
+        ensureLoaded();
+
+        // Aliases are already resolved, so this goes straight to the canonical zone's slot
+        int index = mIndex.canonicalIndexOf(id);
+        if (index < 0) {
             return null;
         }
 
-        if (id.equals(obj)) {
-            // Load zone data for the first time.
-            return loadZoneData(id);
+        ZoneEntry entry = mEntries.get(index);
+        if (entry != null) {
+            markUsed(entry);
+            return entry.mZone;
         }
 
-        if (obj instanceof SoftReference<?>) {
-            @SuppressWarnings("unchecked")
-            SoftReference<DateTimeZone> ref = (SoftReference<DateTimeZone>) obj;
-            DateTimeZone tz = ref.get();
-            if (tz != null) {
-                return tz;
+        // Load zone data for the first time (or since it was trimmed).
+        return loadZoneData(index);
+    }
+
+    /**
+     * Records that a zone was just used.  This is on the path of every lookup, so it only
+     * writes anything when a different zone was used last.
+     *
+     * @param entry  the zone's entry
+     */
+    private void markUsed(ZoneEntry entry) {
+        long useCount = mUseCount;
+        if (entry.mLastUsed != useCount) {
+            useCount++;
+            entry.mLastUsed = useCount;
+            mUseCount = useCount;
+        }
+    }
+
+    /**
+     * Returns a zone only if it is already loaded; never loads zone data.
+     *
+     * @param id  the id to look up
+     * @return the zone, or null if it is not loaded (or does not exist)
+     */
+    DateTimeZone getLoadedZone(String id) {
+        if (mEntries == null) {
+            return null;
+        }
+
+        int index = mIndex.canonicalIndexOf(id);
+        ZoneEntry entry = index < 0 ? null : mEntries.get(index);
+        return entry != null ? entry.mZone : null;
+    }
+
+    /**
+     * Gets many zones at once.  This is considerably faster than calling getZone()
+     * for each id when many of them aren't loaded yet.
+     *
+     * @param ids  the ids to get
+     * @return the zones, keyed by requested id (in the order requested); ids
+     * which are not recognized are left out
+     * @see #getZones(Collection, Executor)
+     */
+    public Map<String, DateTimeZone> getZones(Collection<String> ids) {
+        return getZones(ids, null);
+    }
+
+    /**
+     * Gets many zones at once.
+     *
+     * Aliases are resolved up front so that each underlying zone is only loaded once.
+     * The data for all the unloaded zones is read in a single pass, in resource order,
+     * and then parsed (optionally in parallel on the given Executor).  The new zones
+     * are only added to the cache once they have all been parsed.
+     *
+     * This blocks until all zones are loaded, so don't call it on the main thread.
+     *
+     * @param ids  the ids to get
+     * @param parseExecutor  if not null, zones are parsed in parallel on this Executor
+     * @return the zones, keyed by requested id (in the order requested); ids
+     * which are not recognized are left out
+     */
+    public Map<String, DateTimeZone> getZones(Collection<String> ids, Executor parseExecutor) {
+        ensureLoaded();
+
+        // Figure out which zones actually need loading
+        Map<String, String> canonicalIds = new LinkedHashMap<String, String>();
+        Set<String> toLoad = new TreeSet<String>();
+        for (String id : ids) {
+            if (id == null || canonicalIds.containsKey(id)) {
+                continue;
+            }
+
+            int index = mIndex.canonicalIndexOf(id);
+            if (index >= 0) {
+                String canonicalId = mIndex.getId(index);
+                canonicalIds.put(id, canonicalId);
+                if (mEntries.get(index) == null && createFixedOffsetZone(canonicalId) == null) {
+                    toLoad.add(canonicalId);
+                }
             }
-            // Reference cleared; load data again.
-            return loadZoneData(id);
         }
 
-        // If this point is reached, mapping must link to another.
-        return getZone((String) obj);
+        if (!toLoad.isEmpty()) {
+            loadZoneData(toLoad, parseExecutor);
+        }
+
+        Map<String, DateTimeZone> zones = new LinkedHashMap<String, DateTimeZone>();
+        for (Map.Entry<String, String> entry : canonicalIds.entrySet()) {
+            DateTimeZone zone = getZone(entry.getValue());
+            if (zone != null) {
+                zones.put(entry.getKey(), zone);
+            }
+        }
+        return zones;
     }
 
     /**
      * Gets a list of all the available zone ids.
      *
+     * If this is a lazy provider that hasn't been used yet, the ids aren't loaded until
+     * the set is first iterated (or checked for anything other than UTC).
+     *
      * @return the zone ids
      */
     public Set<String> getAvailableIDs() {
-        // Return a copy of the keys rather than an umodifiable collection.
-        // This prevents ConcurrentModificationExceptions from being thrown by
-        // some JVMs if zones are opened while this set is iterated over.
-        return new TreeSet<String>(iZoneInfoMap.keySet());
+        if (mEntries == null) {
+            return new UnloadedIDs();
+        }
+        return loadAvailableIDs();
+    }
+
+    private Set<String> loadAvailableIDs() {
+        ensureLoaded();
+
+        // Zones that failed to load are left out
+        Set<String> ids = new TreeSet<String>();
+        for (int a = 0; a < mIndex.size(); a++) {
+            if (mEntries.get(mIndex.getCanonicalIndex(a)) != ZoneEntry.FAILED) {
+                ids.add(mIndex.getId(a));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Precomputes offset tables for frequently used zones, which makes offset lookups
+     * (e.g. converting an instant to fields, or formatting) faster for instants within
+     * the given years.  The default zone always gets an offset table; you can add others.
+     *
+     * This only applies to zones loaded after it is called (zones which are already
+     * loaded are left alone, so that they keep comparing equal to the zones in existing
+     * DateTimes, even if they're trimmed and loaded again).  Call it early, before any
+     * dates have been handled.
+     *
+     * @param startYear  the first year (inclusive) to precompute
+     * @param endYear  the last year (inclusive) to precompute
+     * @param ids  ids of other zones (besides the default zone) to precompute, or null
+     */
+    public void enableOffsetTables(int startYear, int endYear, Collection<String> ids) {
+        if (startYear > endYear) {
+            throw new IllegalArgumentException("startYear must not be after endYear");
+        }
+
+        Set<String> tableIds = new HashSet<String>();
+        if (ids != null) {
+            for (String id : ids) {
+                tableIds.add(getCanonicalId(id));
+            }
+        }
+
+        mOffsetTableStartYear = startYear;
+        mOffsetTableEndYear = endYear;
+        mOffsetTableIds = tableIds;
+    }
+
+    /**
+     * Stops precomputing offset tables for zones loaded from now on.  Zones which already
+     * got offset tables keep them, even if they're trimmed and loaded again.
+     */
+    public void disableOffsetTables() {
+        mOffsetTableIds = null;
+    }
+
+    /**
+     * Packs the transitions of zones into one shared off-heap buffer, rather than
+     * having each zone keep its own data on the heap.  This is worth it if you keep
+     * many zones loaded at once; it means less heap usage and less for the garbage
+     * collector to scan.
+     *
+     * Only transitions within the given years are packed; asking a zone about any
+     * other instant loads the full zone again.  Either way the results are identical
+     * to those of the original zones.
+     *
+     * This only applies to zones loaded after it is called (zones which are already
+     * loaded are left alone, so that they keep comparing equal to the zones in existing
+     * DateTimes).  Likewise, zones which were packed keep coming from the same store when
+     * they're trimmed and loaded again, even if the store is replaced or disabled since.
+     * Call it early, before any dates have been handled.  Zones which get offset tables
+     * (see {@link #enableOffsetTables(int, int, Collection)}) are not packed.
+     *
+     * @param startYear  the first year (inclusive) to pack
+     * @param endYear  the last year (inclusive) to pack
+     */
+    public void enableSharedTransitionStore(int startYear, int endYear) {
+        // Keep using the same store if nothing changed, so that reloaded zones are the same instances
+        SharedTransitionStore transitionStore = mTransitionStore;
+        if (transitionStore != null && transitionStore.hasYears(startYear, endYear)) {
+            return;
+        }
+
+        mTransitionStore = new SharedTransitionStore(startYear, endYear, new SharedTransitionStore.FallbackLoader() {
+            @Override
+            public DateTimeZone loadFallbackZone(String id) {
+                try {
+                    return readUncachedZone(id);
+                }
+                catch (IOException ex) {
+                    uncaughtException(ex);
+                    return null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops packing zones loaded from now on.  Zones which were already packed stay
+     * packed, even if they're trimmed and loaded again.
+     */
+    public void disableSharedTransitionStore() {
+        mTransitionStore = null;
+    }
+
+    /**
+     * Resolves aliases.
+     *
+     * @param id  an id
+     * @return the canonical id (or the id itself, if it isn't known)
+     */
+    private String getCanonicalId(String id) {
+        ensureLoaded();
+        int index = mIndex.canonicalIndexOf(id);
+        return index < 0 ? id : mIndex.getId(index);
+    }
+
+    /**
+     * Applies any optimizations configured for a newly loaded zone.
+     *
+     * @param id  the canonical id of the zone
+     * @param zone  the zone, as loaded from resources
+     * @return the zone to cache
+     */
+    private DateTimeZone prepareZone(String id, DateTimeZone zone) {
+        // A zone that was loaded before is prepared the same way again, whatever the settings are now
+        int[] years = mOffsetTableYears.get(id);
+        if (years != null) {
+            return OffsetTableDateTimeZone.forZone(zone, years[0], years[1]);
+        }
+
+        SharedTransitionStore transitionStore = mPackedStores.get(id);
+        if (transitionStore != null) {
+            return transitionStore.pack(zone);
+        }
+
+        Set<String> tableIds = mOffsetTableIds;
+        if (tableIds != null
+            && (tableIds.contains(id) || id.equals(getCanonicalId(TimeZone.getDefault().getID())))) {
+            years = new int[] { mOffsetTableStartYear, mOffsetTableEndYear };
+            int[] existing = mOffsetTableYears.putIfAbsent(id, years);
+            if (existing != null) {
+                years = existing;
+            }
+            return OffsetTableDateTimeZone.forZone(zone, years[0], years[1]);
+        }
+
+        transitionStore = mTransitionStore;
+        if (transitionStore != null) {
+            SharedTransitionStore existing = mPackedStores.putIfAbsent(id, transitionStore);
+            if (existing != null) {
+                transitionStore = existing;
+            }
+            return transitionStore.pack(zone);
+        }
+
+        return zone;
+    }
+
+    /**
+     * Drops loaded zones from the cache in response to memory pressure.
+     *
+     * The higher the level, the more gets dropped; the default zone and a handful of
+     * the most recently used zones survive all but the most severe levels (and the
+     * default zone always survives).  Dropped zones are loaded again the next time
+     * they are requested, or all at once via {@link #restoreTrimmedZones()}.
+     *
+     * This is called automatically via {@link ComponentCallbacks2#onTrimMemory(int)}.
+     *
+     * @param level the trim level, as per {@link ComponentCallbacks2}
+     */
+    public void trimMemory(int level) {
+        int keep = recentZonesToKeep(level);
+        if (keep == Integer.MAX_VALUE || mEntries == null) {
+            return;
+        }
+
+        String defaultId = DateTimeZone.getDefault().getID();
+
+        // Snapshot when each zone was last used, since lookups on other threads keep updating it
+        List<TrimCandidate> candidates = new ArrayList<TrimCandidate>();
+        for (int a = 0; a < mEntries.length(); a++) {
+            ZoneEntry entry = mEntries.get(a);
+            if (entry != null && !entry.mPinned && !entry.mZone.getID().equals(defaultId)) {
+                candidates.add(new TrimCandidate(entry, entry.mLastUsed));
+            }
+        }
+
+        if (candidates.size() <= keep) {
+            return;
+        }
+
+        // Most recently used first
+        Collections.sort(candidates, new Comparator<TrimCandidate>() {
+            @Override
+            public int compare(TrimCandidate lhs, TrimCandidate rhs) {
+                return lhs.mLastUsed > rhs.mLastUsed ? -1 : (lhs.mLastUsed == rhs.mLastUsed ? 0 : 1);
+            }
+        });
+
+        List<String> trimmedIds = new ArrayList<String>(mTrimmedIds);
+        for (int a = keep; a < candidates.size(); a++) {
+            ZoneEntry entry = candidates.get(a).mEntry;
+            String id = entry.mZone.getID();
+            if (mEntries.compareAndSet(mIndex.indexOf(id), entry, null) && !trimmedIds.contains(id)) {
+                trimmedIds.add(id);
+            }
+        }
+        mTrimmedIds = trimmedIds;
+    }
+
+    /**
+     * Loads all the zones that were dropped by {@link #trimMemory(int)}, so that the
+     * cache looks the way it did before memory got tight.  Call this from a background
+     * thread when you know zones will be needed again soon (e.g. when the app returns
+     * to the foreground).
+     */
+    public void restoreTrimmedZones() {
+        List<String> trimmedIds = mTrimmedIds;
+        mTrimmedIds = Collections.emptyList();
+        for (String id : trimmedIds) {
+            getZone(id);
+        }
+    }
+
+    /**
+     * @return how many zones (beyond the default) to keep for a given trim level,
+     * or Integer.MAX_VALUE to keep them all
+     */
+    static int recentZonesToKeep(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE
+            || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+            || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 2;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+            || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return 8;
+        }
+        return Integer.MAX_VALUE;
     }
 
     /**
@@ -104,7 +584,7 @@ public class ResourceZoneInfoProvider implements Provider {
      * @return the input stream
      * @throws IOException if an error occurs
      */
-    private InputStream openResource(String name) throws IOException {
+    InputStream openResource(String name) throws IOException {
         if (mAppContext == null) {
             throw new RuntimeException("Need to call JodaTimeAndroid.init() before using joda-time-android");
         }
@@ -122,44 +602,395 @@ public class ResourceZoneInfoProvider implements Provider {
     }
 
     /**
-     * Loads the time zone data for one id.
+     * Loads the time zone data for one id.  If another thread is already loading
+     * the same zone, waits for it to finish rather than loading it twice.
      *
-     * @param id  the id to load
+     * @param index  the slot of the (canonical) id to load
+     * @return the zone
+     */
+    private DateTimeZone loadZoneData(int index) {
+        String id = mIndex.getId(index);
+
+        // No need to go to resources for zones which are just a fixed offset
+        DateTimeZone fixedZone = createFixedOffsetZone(id);
+        if (fixedZone != null) {
+            ZoneEntry entry = new ZoneEntry(fixedZone, false);
+            markUsed(entry);
+            mEntries.compareAndSet(index, null, entry);
+            return fixedZone;
+        }
+
+        FutureTask<DateTimeZone> task = newLoadTask(index);
+        FutureTask<DateTimeZone> inFlight = mLoadsInFlight.putIfAbsent(id, task);
+        if (inFlight == null) {
+            task.run();
+            mLoadsInFlight.remove(id, task);
+            inFlight = task;
+        }
+
+        return getUninterruptibly(inFlight);
+    }
+
+    /**
+     * @param index  the slot of the (canonical) id to load
+     * @return a task that loads the zone, unless it's in the cache by the time it runs
+     */
+    private FutureTask<DateTimeZone> newLoadTask(final int index) {
+        return new FutureTask<DateTimeZone>(new Callable<DateTimeZone>() {
+            @Override
+            public DateTimeZone call() {
+                // Someone may have finished loading this zone while we were getting here
+                ZoneEntry entry = mEntries.get(index);
+                if (entry != null) {
+                    return entry.mZone;
+                }
+                return readZoneData(index);
+            }
+        });
+    }
+
+    /**
+     * Reads the time zone data for one id from its resource and caches it.
+     *
+     * @param index  the slot of the (canonical) id to load
      * @return the zone
      */
-    private DateTimeZone loadZoneData(String id) {
-        InputStream in = null;
+    private DateTimeZone readZoneData(int index) {
+        String id = mIndex.getId(index);
+        boolean monitored = ZoneLoadMonitor.isEnabled();
+        long startNanos = monitored ? System.nanoTime() : 0;
         try {
-            in = openResource(id);
-            DateTimeZone tz = DateTimeZoneBuilder.readFrom(in, id);
-            iZoneInfoMap.put(id, new SoftReference<DateTimeZone>(tz));
+            DateTimeZone tz = prepareZone(id, readUncachedZone(id));
+            ZoneEntry entry = new ZoneEntry(tz, false);
+            markUsed(entry);
+            mEntries.set(index, entry);
             return tz;
         }
         catch (IOException ex) {
             uncaughtException(ex);
-            iZoneInfoMap.remove(id);
+            mEntries.set(index, ZoneEntry.FAILED);
             return null;
         }
+        finally {
+            if (monitored) {
+                ZoneLoadMonitor.report(id, startNanos);
+            }
+        }
+    }
+
+    /**
+     * Reads the time zone data for one id from its resource, without caching it.
+     *
+     * @param id  the id to load
+     * @return the zone
+     * @throws IOException if an error occurs
+     */
+    private DateTimeZone readUncachedZone(String id) throws IOException {
+        InputStream in = openResource(id);
+        try {
+            return DateTimeZoneBuilder.readFrom(in, id);
+        }
         finally {
             try {
-                if (in != null) {
-                    in.close();
+                in.close();
+            }
+            catch (IOException ex) {
+            }
+        }
+    }
+
+    /**
+     * Loads the time zone data for many (canonical) ids at once.  As with loading a single
+     * zone, any zone that another thread is already loading is waited for rather than loaded
+     * twice (and vice versa).
+     *
+     * @param ids  the ids to load
+     * @param parseExecutor  if not null, zones are parsed in parallel on this Executor
+     */
+    private void loadZoneData(Collection<String> ids, Executor parseExecutor) {
+        Map<String, FutureTask<DateTimeZone>> claimed = new LinkedHashMap<String, FutureTask<DateTimeZone>>();
+        List<FutureTask<DateTimeZone>> joined = new ArrayList<FutureTask<DateTimeZone>>();
+        for (String id : ids) {
+            FutureTask<DateTimeZone> task = newLoadTask(mIndex.indexOf(id));
+            FutureTask<DateTimeZone> inFlight = mLoadsInFlight.putIfAbsent(id, task);
+            if (inFlight == null) {
+                claimed.put(id, task);
+            }
+            else {
+                joined.add(inFlight);
+            }
+        }
+
+        try {
+            if (!claimed.isEmpty()) {
+                readZoneData(claimed.keySet(), parseExecutor);
+            }
+        }
+        finally {
+            // The zones are cached by now, so this just hands them to anyone waiting (unless
+            // something went wrong, in which case they're loaded one at a time)
+            for (Map.Entry<String, FutureTask<DateTimeZone>> entry : claimed.entrySet()) {
+                entry.getValue().run();
+                mLoadsInFlight.remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        for (FutureTask<DateTimeZone> task : joined) {
+            getUninterruptibly(task);
+        }
+    }
+
+    /**
+     * Reads the time zone data for many (canonical) ids from their resources in one pass,
+     * and caches them.
+     *
+     * @param ids  the ids to load
+     * @param parseExecutor  if not null, zones are parsed in parallel on this Executor
+     */
+    private void readZoneData(Collection<String> ids, Executor parseExecutor) {
+        boolean monitored = ZoneLoadMonitor.isEnabled();
+
+        // Read everything in resource order, so we walk through the APK sequentially
+        List<ZoneData> data = new ArrayList<ZoneData>(ids.size());
+        for (String id : ids) {
+            int resId = ResUtils.getIdentifier(R.raw.class, ResUtils.getTzResource(id));
+            if (resId == 0) {
+                uncaughtException(new IOException("Resource not found: \"" + id + "\""));
+                mEntries.set(mIndex.indexOf(id), ZoneEntry.FAILED);
+            }
+            else {
+                data.add(new ZoneData(id, resId));
+            }
+        }
+
+        Collections.sort(data, new Comparator<ZoneData>() {
+            @Override
+            public int compare(ZoneData lhs, ZoneData rhs) {
+                return lhs.mResId < rhs.mResId ? -1 : (lhs.mResId == rhs.mResId ? 0 : 1);
+            }
+        });
+
+        byte[] buffer = new byte[4096];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ZoneData zoneData : data) {
+            long startNanos = monitored ? System.nanoTime() : 0;
+            InputStream in = null;
+            try {
+                in = mAppContext.getResources().openRawResource(zoneData.mResId);
+                out.reset();
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
                 }
+                zoneData.mBytes = out.toByteArray();
             }
             catch (IOException ex) {
+                uncaughtException(ex);
+                mEntries.set(mIndex.indexOf(zoneData.mId), ZoneEntry.FAILED);
+            }
+            finally {
+                try {
+                    if (in != null) {
+                        in.close();
+                    }
+                }
+                catch (IOException ex) {
+                }
+            }
+
+            if (monitored) {
+                zoneData.mNanos = System.nanoTime() - startNanos;
+            }
+        }
+
+        // Parse everything, possibly in parallel
+        List<FutureTask<DateTimeZone>> tasks = new ArrayList<FutureTask<DateTimeZone>>(data.size());
+        for (final ZoneData zoneData : data) {
+            if (zoneData.mBytes == null) {
+                tasks.add(null);
+                continue;
+            }
+
+            FutureTask<DateTimeZone> task = new FutureTask<DateTimeZone>(new Callable<DateTimeZone>() {
+                @Override
+                public DateTimeZone call() throws IOException {
+                    long startNanos = System.nanoTime();
+                    DateTimeZone zone = DateTimeZoneBuilder.readFrom(new ByteArrayInputStream(zoneData.mBytes), zoneData.mId);
+                    zone = prepareZone(zoneData.mId, zone);
+                    zoneData.mNanos += System.nanoTime() - startNanos;
+                    return zone;
+                }
+            });
+            tasks.add(task);
+
+            if (parseExecutor != null) {
+                parseExecutor.execute(task);
+            }
+            else {
+                task.run();
+            }
+        }
+
+        List<ZoneEntry> entries = new ArrayList<ZoneEntry>(data.size());
+        for (int a = 0; a < data.size(); a++) {
+            FutureTask<DateTimeZone> task = tasks.get(a);
+            if (task == null) {
+                entries.add(null);
+                continue;
+            }
+
+            try {
+                entries.add(new ZoneEntry(getUninterruptibly(task), false));
+            }
+            catch (RuntimeException ex) {
+                if (!(ex.getCause() instanceof IOException)) {
+                    throw ex;
+                }
+                uncaughtException((IOException) ex.getCause());
+                mEntries.set(mIndex.indexOf(data.get(a).mId), ZoneEntry.FAILED);
+                entries.add(null);
+            }
+        }
+
+        // Now that everything is parsed, add it all to the cache (unless someone beat us to it)
+        long useCount = ++mUseCount;
+        for (int a = 0; a < data.size(); a++) {
+            ZoneEntry entry = entries.get(a);
+            if (entry != null) {
+                String id = data.get(a).mId;
+                entry.mLastUsed = useCount;
+                mEntries.compareAndSet(mIndex.indexOf(id), null, entry);
+            }
+        }
+
+        if (monitored) {
+            // Reported here, rather than on the parsing threads, so that the stack traces
+            // point at whoever asked for the zones
+            for (ZoneData zoneData : data) {
+                ZoneLoadMonitor.reportDuration(zoneData.mId, zoneData.mNanos);
+            }
+        }
+    }
+
+    /**
+     * Creates zones which are a fixed offset from UTC (i.e., Etc/UTC, Etc/GMT and Etc/GMT+/-N)
+     * directly, since there's no point in reading and parsing resources for them.  The results
+     * are identical to what ZoneInfoCompiler generates for these zones (including name keys).
+     *
+     * @param id  a canonical id from the zone info map
+     * @return the zone, or null if the id isn't a fixed offset zone
+     */
+    static DateTimeZone createFixedOffsetZone(String id) {
+        if (!id.startsWith("Etc/")) {
+            return null;
+        }
+        else if (id.equals("Etc/UTC")) {
+            return new FixedDateTimeZone(id, "UTC", 0, 0);
+        }
+        else if (id.equals("Etc/GMT")) {
+            return new FixedDateTimeZone(id, "GMT", 0, 0);
+        }
+        else if (!id.startsWith("Etc/GMT") || id.length() < 9 || id.length() > 10) {
+            return null;
+        }
+
+        char sign = id.charAt(7);
+        if (sign != '+' && sign != '-') {
+            return null;
+        }
+
+        int hours = 0;
+        for (int a = 8; a < id.length(); a++) {
+            char c = id.charAt(a);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            hours = hours * 10 + (c - '0');
+        }
+
+        if (hours == 0 || hours > 14) {
+            return null;
+        }
+
+        // POSIX-style signs, so Etc/GMT+5 is *behind* UTC.  ZoneInfoCompiler doesn't expand
+        // the "%z" format these zones use, so that's what their name key ends up as.
+        int offset = (sign == '+' ? -hours : hours) * DateTimeConstants.MILLIS_PER_HOUR;
+        return new FixedDateTimeZone(id, "%z", offset, offset);
+    }
+
+    /**
+     * Waits for a Future to finish, even if interrupted (re-interrupting afterwards).
+     *
+     * @param future  the future to wait for
+     * @return the result of the future
+     */
+    private static <T> T getUninterruptibly(Future<T> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
         }
     }
 
     //-----------------------------------------------------------------------
+    /**
+     * Loads the zone index generated at build time, or if that's missing, builds it
+     * from the zone info map.
+     *
+     * @return the index
+     */
+    private ZoneIndex loadZoneIndex() throws IOException {
+        InputStream in;
+        try {
+            in = openResource("ZoneIndex");
+        }
+        catch (IOException ex) {
+            return ZoneIndex.build(loadZoneInfoMap(openResource("ZoneInfoMap")));
+        }
+        return ZoneIndex.read(in);
+    }
+
+    /**
+     * @return the number of ids in the zone index generated at build time, or -1 if it's missing
+     */
+    private int readZoneIndexSize() {
+        try {
+            return ZoneIndex.readSize(openResource("ZoneIndex"));
+        }
+        catch (IOException ex) {
+            return -1;
+        }
+    }
+
     /**
      * Loads the zone info map.
      *
      * @param in  the input stream
      * @return the map
      */
-    private static Map<String, Object> loadZoneInfoMap(InputStream in) throws IOException {
-        Map<String, Object> map = new ConcurrentHashMap<String, Object>();
+    static Map<String, String> loadZoneInfoMap(InputStream in) throws IOException {
+        Map<String, String> map = new HashMap<String, String>();
         DataInputStream din = new DataInputStream(in);
         try {
             readZoneInfoMap(din, map);
@@ -171,7 +1002,6 @@ public class ResourceZoneInfoProvider implements Provider {
             catch (IOException ex) {
             }
         }
-        map.put("UTC", new SoftReference<DateTimeZone>(DateTimeZone.UTC));
         return map;
     }
 
@@ -181,7 +1011,7 @@ public class ResourceZoneInfoProvider implements Provider {
      * @param din  the input stream
      * @param zimap  gets filled with string id to string id mappings
      */
-    private static void readZoneInfoMap(DataInputStream din, Map<String, Object> zimap) throws IOException {
+    private static void readZoneInfoMap(DataInputStream din, Map<String, String> zimap) throws IOException {
         // Read the string pool.
         int size = din.readUnsignedShort();
         String[] pool = new String[size];
@@ -201,4 +1031,108 @@ public class ResourceZoneInfoProvider implements Provider {
         }
     }
 
+    /**
+     * Raw data for a zone that is being loaded as part of a batch.
+     */
+    private static final class ZoneData {
+
+        final String mId;
+
+        final int mResId;
+
+        byte[] mBytes;
+
+        /** How long reading and parsing took (only tracked while monitoring) */
+        long mNanos;
+
+        ZoneData(String id, int resId) {
+            mId = id;
+            mResId = resId;
+        }
+    }
+
+    /**
+     * The available ids of a lazy provider that hasn't been used yet.
+     *
+     * DateTimeZone.setProvider() checks that there are some ids and that UTC is one of them,
+     * which this can answer from the zone index's header, so that installing the provider
+     * doesn't load it.  Anything else loads the provider.
+     */
+    private final class UnloadedIDs extends AbstractSet<String> {
+
+        private Set<String> mIds;
+
+        private int mSize = -1;
+
+        private Set<String> ids() {
+            if (mIds == null) {
+                mIds = loadAvailableIDs();
+            }
+            return mIds;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return ids().iterator();
+        }
+
+        @Override
+        public int size() {
+            if (mIds == null && mEntries == null) {
+                if (mSize < 0) {
+                    mSize = readZoneIndexSize();
+                }
+                if (mSize >= 0) {
+                    return mSize;
+                }
+            }
+            return ids().size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (mIds == null && "UTC".equals(o)) {
+                return true;
+            }
+            return ids().contains(o);
+        }
+    }
+
+    /**
+     * A zone that could be trimmed, and when it was last used (which can't change while sorting).
+     */
+    private static final class TrimCandidate {
+
+        final ZoneEntry mEntry;
+
+        final long mLastUsed;
+
+        TrimCandidate(ZoneEntry entry, long lastUsed) {
+            mEntry = entry;
+            mLastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * A loaded zone in the cache.
+     */
+    private static final class ZoneEntry {
+
+        /** Marks zones which failed to load, so they're not retried */
+        static final ZoneEntry FAILED = new ZoneEntry(null, true);
+
+        final DateTimeZone mZone;
+
+        /** Pinned entries are never trimmed (e.g. UTC, which has no resource to reload from) */
+        final boolean mPinned;
+
+        /** Value of mUseCount when this was last used; only approximate, as it's updated without locking */
+        long mLastUsed;
+
+        ZoneEntry(DateTimeZone zone, boolean pinned) {
+            mZone = zone;
+            mPinned = pinned;
+        }
+    }
+
 }
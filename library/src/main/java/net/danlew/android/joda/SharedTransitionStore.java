@@ -0,0 +1,159 @@
+package net.danlew.android.joda;
+
+import org.joda.time.DateTimeZone;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Packs the transitions of many zones (over a window of years) into one shared, direct
+ * ByteBuffer, and hands out lightweight views onto it.
+ *
+ * This is for apps that keep a lot of zones loaded at once.  Each zone's transitions
+ * live off-heap rather than in its own arrays and objects, so there's less for the
+ * garbage collector to scan.  The full zone is only loaded again if something asks
+ * about an instant outside of the window.
+ */
+final class SharedTransitionStore {
+
+    /**
+     * Loads the full version of a zone, for instants outside the window.
+     */
+    interface FallbackLoader {
+        DateTimeZone loadFallbackZone(String id);
+    }
+
+    /** Each record is: long instant, int offset, int standard offset, int name key index */
+    static final int RECORD_SIZE = 20;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int mStartYear;
+
+    private final int mEndYear;
+
+    private final FallbackLoader mFallbackLoader;
+
+    /** The records; replaced with a larger copy when it runs out of room */
+    private volatile ByteBuffer mBuffer;
+
+    /** The name keys referred to by records; replaced with a larger copy when a new one comes along */
+    private volatile String[] mNameKeys = new String[0];
+
+    /** Number of records in use (guarded by this) */
+    private int mSize;
+
+    /** Indices into mNameKeys (guarded by this) */
+    private final Map<String, Integer> mNameKeyIndices = new HashMap<String, Integer>();
+
+    /** Zones already packed, by id (guarded by this) */
+    private final Map<String, PackedDateTimeZone> mZones = new HashMap<String, PackedDateTimeZone>();
+
+    SharedTransitionStore(int startYear, int endYear, FallbackLoader fallbackLoader) {
+        if (startYear > endYear) {
+            throw new IllegalArgumentException("startYear must not be after endYear");
+        }
+
+        mStartYear = startYear;
+        mEndYear = endYear;
+        mFallbackLoader = fallbackLoader;
+        mBuffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY * RECORD_SIZE).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Packs a zone's transitions into the store.
+     *
+     * @param zone the zone to pack
+     * @return a view of the packed zone, or the original zone if there'd be no point packing it
+     */
+    synchronized DateTimeZone pack(DateTimeZone zone) {
+        if (zone.isFixed()) {
+            return zone;
+        }
+
+        // If this zone has been packed before (e.g., it was trimmed from the cache and reloaded), reuse it
+        PackedDateTimeZone packed = mZones.get(zone.getID());
+        if (packed != null) {
+            return packed;
+        }
+
+        ZoneTransitions transitions = ZoneTransitions.collect(zone, mStartYear, mEndYear);
+        int count = transitions.size();
+        ensureCapacity(mSize + count);
+
+        ByteBuffer buffer = mBuffer;
+        for (int a = 0; a < count; a++) {
+            int position = (mSize + a) * RECORD_SIZE;
+            buffer.putLong(position, transitions.mInstants[a]);
+            buffer.putInt(position + 8, transitions.mOffsets[a]);
+            buffer.putInt(position + 12, transitions.mStandardOffsets[a]);
+            buffer.putInt(position + 16, getNameKeyIndex(transitions.mNameKeys[a]));
+        }
+
+        packed = new PackedDateTimeZone(this, zone.getID(), mSize, count, transitions.mEnd);
+        mSize += count;
+        mZones.put(zone.getID(), packed);
+        return packed;
+    }
+
+    /**
+     * @return true if this store packs the given years
+     */
+    boolean hasYears(int startYear, int endYear) {
+        return mStartYear == startYear && mEndYear == endYear;
+    }
+
+    /**
+     * @return the number of bytes of transition data in the store
+     */
+    synchronized int getSizeInBytes() {
+        return mSize * RECORD_SIZE;
+    }
+
+    ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    String getNameKey(int index) {
+        return index >= 0 ? mNameKeys[index] : null;
+    }
+
+    DateTimeZone loadFallbackZone(String id) {
+        return mFallbackLoader.loadFallbackZone(id);
+    }
+
+    private void ensureCapacity(int records) {
+        ByteBuffer buffer = mBuffer;
+        if (records * RECORD_SIZE <= buffer.capacity()) {
+            return;
+        }
+
+        int capacity = Math.max(records * RECORD_SIZE, buffer.capacity() * 2);
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        ByteBuffer used = buffer.duplicate();
+        used.position(0);
+        used.limit(mSize * RECORD_SIZE);
+        newBuffer.put(used);
+        mBuffer = newBuffer;
+    }
+
+    private int getNameKeyIndex(String nameKey) {
+        if (nameKey == null) {
+            return -1;
+        }
+
+        Integer index = mNameKeyIndices.get(nameKey);
+        if (index == null) {
+            String[] nameKeys = mNameKeys;
+            String[] newNameKeys = new String[nameKeys.length + 1];
+            System.arraycopy(nameKeys, 0, newNameKeys, 0, nameKeys.length);
+            newNameKeys[nameKeys.length] = nameKey;
+            index = nameKeys.length;
+            mNameKeyIndices.put(nameKey, index);
+            mNameKeys = newNameKeys;
+        }
+        return index;
+    }
+}
@@ -3,28 +3,128 @@ package net.danlew.android.joda;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Process;
 import android.util.Log;
 import org.joda.time.DateTimeZone;
 
 import java.util.TimeZone;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Listens for android.intent.action.TIMEZONE_CHANGED and adjusts
  * default DateTimeZone as necessary.
+ *
+ * The new zone is loaded on a background thread, and only then made the default (so
+ * nothing ever sees a half-loaded default); the broadcast is kept alive with goAsync()
+ * until then.  Bursts of broadcasts (e.g. while traveling) are coalesced into a single
+ * update, and {@link JodaTimeChanges} listeners are only notified if the default
+ * actually changed.
  */
 public class TimeZoneChangedReceiver extends BroadcastReceiver {
 
+    /** True if an update is waiting to run; any broadcasts until then are covered by it */
+    private static final AtomicBoolean sUpdatePending = new AtomicBoolean();
+
     @Override
     public void onReceive(Context context, Intent intent) {
-        String tzId = intent.getStringExtra("time-zone");
+        if (sUpdatePending.compareAndSet(false, true)) {
+            // Keeps the process alive until the update is done (null if not called for a real broadcast)
+            final PendingResult result = goAsync();
+            boolean scheduled = false;
+            try {
+                ExecutorHolder.EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            // Cleared before reading the default, so a broadcast after this point schedules another update
+                            sUpdatePending.set(false);
+                            updateDefault();
+                        }
+                        catch (RuntimeException e) {
+                            // Don't let it take down the update thread (or leave the broadcast unfinished)
+                            Log.e("joda-time-android", "Could not update the default timezone", e);
+                        }
+                        finally {
+                            sUpdatePending.set(false);
+                            finish(result);
+                        }
+                    }
+                });
+                scheduled = true;
+            }
+            finally {
+                if (!scheduled) {
+                    sUpdatePending.set(false);
+                    finish(result);
+                }
+            }
+        }
+    }
+
+    private static void finish(PendingResult result) {
+        if (result != null) {
+            result.finish();
+        }
+    }
+
+    /**
+     * Makes the current java.util.TimeZone default the DateTimeZone default.
+     */
+    static void updateDefault() {
+        TimeZoneConverter.invalidateDefault();
 
         try {
-            DateTimeZone newDefault = DateTimeZone.forTimeZone(TimeZone.getDefault());
-            DateTimeZone.setDefault(newDefault);
-            Log.d("joda-time-android", "TIMEZONE_CHANGED received, changed default timezone to \"" + tzId + "\"");
+            DateTimeZone newDefault = TimeZoneConverter.forDefaultTimeZone();
+            if (!newDefault.equals(DateTimeZone.getDefault())) {
+                DateTimeZone.setDefault(newDefault);
+                Log.d("joda-time-android", "TIMEZONE_CHANGED received, changed default timezone to \""
+                    + newDefault.getID() + "\"");
+
+                try {
+                    JodaTimeChanges.checkForChanges();
+                }
+                catch (RuntimeException e) {
+                    // A listener failed; the default has still changed
+                    Log.e("joda-time-android", "JodaTimeChanges listener failed", e);
+                }
+            }
         }
         catch (IllegalArgumentException e) {
-            Log.e("joda-time-android", "Could not recognize timezone id \"" + tzId + "\"", e);
+            Log.e("joda-time-android", "Could not recognize timezone id \"" + TimeZone.getDefault().getID() + "\"", e);
+        }
+    }
+
+    /**
+     * Lazily creates the thread that updates happen on (which goes away when idle).
+     */
+    private static final class ExecutorHolder {
+
+        static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
+        private static ThreadPoolExecutor createExecutor() {
+            ThreadFactory threadFactory = new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "joda-time-android");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
         }
     }
 
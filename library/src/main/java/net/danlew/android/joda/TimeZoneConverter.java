@@ -0,0 +1,131 @@
+package net.danlew.android.joda;
+
+import org.joda.time.DateTimeZone;
+
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Converts java.util.TimeZones to DateTimeZones, caching the results.
+ *
+ * DateTimeZone.forTimeZone() translates old-style ids and goes through the provider
+ * every time, which adds up for code that converts on every frame.  This caches
+ * conversions by TimeZone id, and keeps the default zone's conversion on hand (it is
+ * reset when TIMEZONE_CHANGED is received).  Everything is converted again if the
+ * DateTimeZone provider changes.
+ *
+ * If you change the default with TimeZone.setDefault() yourself, call
+ * {@link #invalidateDefault()} afterwards.
+ */
+public final class TimeZoneConverter {
+
+    private static final ConcurrentMap<String, DateTimeZone> sZones = new ConcurrentHashMap<String, DateTimeZone>();
+
+    private static final Object sDefaultLock = new Object();
+
+    /** The converted default zone, or null if it needs converting again */
+    private static volatile DateTimeZone sDefault;
+
+    /** Incremented on every invalidation, so that stale conversions don't get cached */
+    private static int sDefaultGeneration;
+
+    /** The JodaTimeChanges provider version that the cached conversions came from */
+    private static volatile int sProviderVersion;
+
+    private TimeZoneConverter() {
+        // no instances
+        throw new AssertionError();
+    }
+
+    /**
+     * Converts a TimeZone to a DateTimeZone, as per DateTimeZone.forTimeZone().
+     *
+     * @param zone the zone to convert; null means the default zone
+     * @return the DateTimeZone
+     * @throws IllegalArgumentException if the zone isn't recognized
+     */
+    public static DateTimeZone forTimeZone(TimeZone zone) {
+        if (zone == null) {
+            return forDefaultTimeZone();
+        }
+
+        int providerVersion = checkProviderVersion();
+        String id = zone.getID();
+        DateTimeZone dateTimeZone = sZones.get(id);
+        if (dateTimeZone == null) {
+            dateTimeZone = DateTimeZone.forTimeZone(zone);
+            if (providerVersion == sProviderVersion) {
+                sZones.put(id, dateTimeZone);
+            }
+        }
+        return dateTimeZone;
+    }
+
+    /**
+     * Converts TimeZone.getDefault() to a DateTimeZone.  After the first call, this
+     * doesn't even need to look up the default TimeZone.
+     *
+     * @return the DateTimeZone
+     * @throws IllegalArgumentException if the zone isn't recognized
+     */
+    public static DateTimeZone forDefaultTimeZone() {
+        checkProviderVersion();
+        DateTimeZone zone = sDefault;
+        if (zone != null) {
+            return zone;
+        }
+
+        int generation;
+        synchronized (sDefaultLock) {
+            generation = sDefaultGeneration;
+        }
+
+        zone = forTimeZone(TimeZone.getDefault());
+
+        synchronized (sDefaultLock) {
+            if (generation == sDefaultGeneration) {
+                sDefault = zone;
+            }
+        }
+        return zone;
+    }
+
+    /**
+     * Forgets the converted default zone, so that the next call to
+     * {@link #forDefaultTimeZone()} looks at TimeZone.getDefault() again.
+     */
+    public static void invalidateDefault() {
+        synchronized (sDefaultLock) {
+            sDefaultGeneration++;
+            sDefault = null;
+        }
+    }
+
+    /**
+     * Forgets all conversions if the provider has changed since they were made.
+     *
+     * @return the current provider version
+     */
+    private static int checkProviderVersion() {
+        int providerVersion = JodaTimeChanges.getProviderVersion();
+        if (providerVersion != sProviderVersion) {
+            synchronized (sDefaultLock) {
+                if (providerVersion != sProviderVersion) {
+                    sProviderVersion = providerVersion;
+                    clear();
+                }
+            }
+        }
+        return providerVersion;
+    }
+
+    /**
+     * Forgets all conversions, so that the zones can be garbage collected (or so that
+     * zones from a new provider get used).
+     */
+    static void clear() {
+        sZones.clear();
+        invalidateDefault();
+    }
+}
@@ -0,0 +1,129 @@
+package net.danlew.android.joda;
+
+import org.joda.time.DateTimeConstants;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.ReadableInstant;
+import org.joda.time.Years;
+import org.joda.time.chrono.ISOChronology;
+
+/**
+ * What "today" is in the default zone, worked out once and kept until the next local midnight
+ * (or until the default zone changes), so that checks like "is this today?" are just a couple
+ * of comparisons instead of creating LocalDates and Periods.
+ *
+ * Days are compared in local millis: millis since the epoch as if the local date and time
+ * were in UTC.  That way every day is exactly 24 hours long, whatever the zone's DST rules.
+ * This only matches counting with Joda for the ISO chronology, so callers should check
+ * {@link #isSupported} first.
+ */
+final class TodayWindow {
+
+    private static final ISOChronology ISO_UTC = ISOChronology.getInstanceUTC();
+
+    private static volatile TodayWindow sWindow;
+
+    private final DateTimeZone mZone;
+
+    // The instants this window is correct for (from when it was made until the next midnight)
+    private final long mValidFrom;
+
+    private final long mValidUntil;
+
+    private final int mYear;
+
+    private final int mMonthOfYear;
+
+    private final int mDayOfMonth;
+
+    // Local millis at the start of today
+    private final long mToday;
+
+    // The local days (at their start) that are less than a year from today, as per Years.yearsBetween()
+    private final long mWithinYearFrom;
+
+    private final long mWithinYearUntil;
+
+    private TodayWindow(long nowMillis, DateTimeZone zone) {
+        mZone = zone;
+        mValidFrom = nowMillis;
+
+        int offset = zone.getOffset(nowMillis);
+        mToday = floorToDay(nowMillis + offset);
+
+        // The offset could change before midnight, in which case just start over then
+        long validUntil = mToday + DateTimeConstants.MILLIS_PER_DAY - offset;
+        long transition = zone.nextTransition(nowMillis);
+        if (transition > nowMillis && transition < validUntil) {
+            validUntil = transition;
+        }
+        mValidUntil = validUntil;
+
+        LocalDate today = new LocalDate(mToday, ISO_UTC);
+        mYear = today.getYear();
+        mMonthOfYear = today.getMonthOfYear();
+        mDayOfMonth = today.getDayOfMonth();
+
+        // Walk up to the boundaries a year either side, rather than reason about leap days
+        LocalDate until = today.plusYears(1).minusDays(3);
+        while (Years.yearsBetween(today, until).getYears() == 0) {
+            until = until.plusDays(1);
+        }
+        mWithinYearUntil = until.toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
+
+        LocalDate from = today.minusYears(1).plusDays(3);
+        while (Years.yearsBetween(today, from).getYears() == 0) {
+            from = from.minusDays(1);
+        }
+        mWithinYearFrom = from.toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis() + DateTimeConstants.MILLIS_PER_DAY;
+    }
+
+    /**
+     * @return the window for the current time and default zone (respecting any {@link NowSnapshot})
+     */
+    static TodayWindow get() {
+        long now = NowSnapshot.currentTimeMillis();
+        DateTimeZone zone = NowSnapshot.currentZone();
+
+        TodayWindow window = sWindow;
+        if (window == null || window.mZone != zone || now < window.mValidFrom || now >= window.mValidUntil) {
+            window = new TodayWindow(now, zone);
+            sWindow = window;
+        }
+        return window;
+    }
+
+    /**
+     * @return true if 'time' can be checked with local millis (i.e., it uses the ISO chronology)
+     */
+    static boolean isSupported(ReadableInstant time) {
+        return time.getChronology() instanceof ISOChronology;
+    }
+
+    /**
+     * @return true if the date is today
+     */
+    boolean isToday(int year, int monthOfYear, int dayOfMonth) {
+        return dayOfMonth == mDayOfMonth && monthOfYear == mMonthOfYear && year == mYear;
+    }
+
+    /**
+     * @return true if the local millis are today
+     */
+    boolean isToday(long localMillis) {
+        return localMillis >= mToday && localMillis < mToday + DateTimeConstants.MILLIS_PER_DAY;
+    }
+
+    /**
+     * @return true if the local millis are less than a whole year from today, as per
+     * Years.yearsBetween()
+     */
+    boolean isWithinYear(long localMillis) {
+        return localMillis >= mWithinYearFrom && localMillis < mWithinYearUntil;
+    }
+
+    private static long floorToDay(long localMillis) {
+        long mod = localMillis % DateTimeConstants.MILLIS_PER_DAY;
+        return localMillis - (mod < 0 ? mod + DateTimeConstants.MILLIS_PER_DAY : mod);
+    }
+}
@@ -0,0 +1,37 @@
+package net.danlew.android.joda;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import org.joda.time.DateTimeZone;
+import org.joda.time.tz.Provider;
+
+/**
+ * Trims ResourceZoneInfoProvider's zone cache (and TimeZoneConverter's) when the
+ * system asks us to free memory.
+ */
+class ZoneCacheTrimmer implements ComponentCallbacks2 {
+
+    @Override
+    public void onTrimMemory(int level) {
+        // Cached conversions would keep trimmed zones alive
+        if (ResourceZoneInfoProvider.recentZonesToKeep(level) != Integer.MAX_VALUE) {
+            TimeZoneConverter.clear();
+        }
+
+        Provider provider = DateTimeZone.getProvider();
+        if (provider instanceof ResourceZoneInfoProvider) {
+            ((ResourceZoneInfoProvider) provider).trimMemory(level);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Not interested
+    }
+
+}
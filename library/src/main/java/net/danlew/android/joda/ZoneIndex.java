@@ -0,0 +1,266 @@
+package net.danlew.android.joda;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps each zone id (including aliases) to a dense index, via a minimal perfect hash.
+ *
+ * Since the set of ids is fixed, every id gets its own slot in [0, size()), found with
+ * two hashes of its (cached) String.hashCode() and a single equals() to rule out
+ * unknown ids.  The hash is normally generated at build time (see CompileTzDataTask
+ * in the plugin, which must use the same hashing as here); if that resource is missing
+ * it is built at runtime from the zone info map instead.
+ *
+ * It uses "hash and displace": ids are split into buckets by one hash, then each
+ * bucket gets a seed such that a second, seeded hash puts all its ids into free slots.
+ */
+final class ZoneIndex {
+
+    /** Format version of the ZoneIndex file; must match CompileTzDataTask in the plugin */
+    private static final int VERSION = 1;
+
+    /** The id in each slot */
+    private final String[] mIds;
+
+    /** For each slot, the slot of its canonical id (itself, unless it's an alias) */
+    private final int[] mCanonical;
+
+    /** The seed for each bucket */
+    private final int[] mSeeds;
+
+    private ZoneIndex(String[] ids, int[] canonical, int[] seeds) {
+        mIds = ids;
+        mCanonical = canonical;
+        mSeeds = seeds;
+    }
+
+    /**
+     * Reads an index generated at build time.
+     *
+     * @param in  the input stream
+     * @return the index
+     */
+    static ZoneIndex read(InputStream in) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        try {
+            if (din.readUnsignedShort() != VERSION) {
+                throw new IOException("Unknown zone index version");
+            }
+
+            int size = din.readUnsignedShort();
+            String[] ids = new String[size];
+            for (int a = 0; a < size; a++) {
+                ids[a] = din.readUTF().intern();
+            }
+
+            int[] canonical = new int[size];
+            for (int a = 0; a < size; a++) {
+                canonical[a] = din.readUnsignedShort();
+                if (canonical[a] >= size) {
+                    throw new IOException("Corrupt zone index");
+                }
+            }
+
+            int[] seeds = new int[din.readUnsignedShort()];
+            for (int a = 0; a < seeds.length; a++) {
+                seeds[a] = din.readInt();
+            }
+
+            return new ZoneIndex(ids, canonical, seeds);
+        }
+        finally {
+            try {
+                din.close();
+            }
+            catch (IOException ex) {
+            }
+        }
+    }
+
+    /**
+     * Reads just the number of ids from an index generated at build time.
+     *
+     * @param in  the input stream
+     * @return the number of ids
+     */
+    static int readSize(InputStream in) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        try {
+            if (din.readUnsignedShort() != VERSION) {
+                throw new IOException("Unknown zone index version");
+            }
+            return din.readUnsignedShort();
+        }
+        finally {
+            try {
+                din.close();
+            }
+            catch (IOException ex) {
+            }
+        }
+    }
+
+    /**
+     * Builds an index at runtime.
+     *
+     * @param zoneInfoMap  maps each id to either itself or the id it's an alias of
+     * @return the index
+     */
+    static ZoneIndex build(Map<String, String> zoneInfoMap) {
+        int size = zoneInfoMap.size();
+        final String[] ids = zoneInfoMap.keySet().toArray(new String[size]);
+        Arrays.sort(ids);
+
+        // Split ids into buckets
+        int[] seeds = new int[Math.max(1, size / 2)];
+        final List<List<Integer>> buckets = new ArrayList<List<Integer>>(seeds.length);
+        for (int a = 0; a < seeds.length; a++) {
+            buckets.add(new ArrayList<Integer>());
+        }
+        for (int a = 0; a < size; a++) {
+            buckets.get(hash(ids[a].hashCode(), 0) % seeds.length).add(a);
+        }
+
+        // Place the biggest buckets first, while there's the most room
+        List<Integer> order = new ArrayList<Integer>(seeds.length);
+        for (int a = 0; a < seeds.length; a++) {
+            order.add(a);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return buckets.get(rhs).size() - buckets.get(lhs).size();
+            }
+        });
+
+        String[] slotIds = new String[size];
+        int[] slots = new int[size];
+        for (int bucketIndex : order) {
+            List<Integer> bucket = buckets.get(bucketIndex);
+            if (bucket.isEmpty()) {
+                continue;
+            }
+
+            int seed = 1;
+            while (!tryPlace(ids, bucket, seed, slotIds, slots)) {
+                seed++;
+            }
+            seeds[bucketIndex] = seed;
+        }
+
+        // Resolve aliases all the way to their canonical ids
+        int[] canonical = new int[size];
+        for (int a = 0; a < size; a++) {
+            String id = ids[a];
+            String target = zoneInfoMap.get(id);
+
+            // UTC is special-cased to DateTimeZone.UTC, so it's its own zone
+            int hops = 0;
+            while (!id.equals("UTC") && target != null && !target.equals(id) && hops++ < size) {
+                id = target;
+                target = zoneInfoMap.get(id);
+            }
+
+            int index = Arrays.binarySearch(ids, id);
+            canonical[slots[a]] = index < 0 ? slots[a] : slots[index];
+        }
+
+        return new ZoneIndex(slotIds, canonical, seeds);
+    }
+
+    /**
+     * Tries to put every id in a bucket into a free slot using the given seed.
+     *
+     * @return true if it worked (and the slots were filled), false if there was a collision
+     */
+    private static boolean tryPlace(String[] ids, List<Integer> bucket, int seed, String[] slotIds, int[] slots) {
+        int size = bucket.size();
+        for (int a = 0; a < size; a++) {
+            int slot = hash(ids[bucket.get(a)].hashCode(), seed) % slotIds.length;
+            if (slotIds[slot] != null) {
+                return false;
+            }
+            for (int b = 0; b < a; b++) {
+                if (slots[bucket.get(b)] == slot) {
+                    return false;
+                }
+            }
+            slots[bucket.get(a)] = slot;
+        }
+
+        for (int a = 0; a < size; a++) {
+            slotIds[slots[bucket.get(a)]] = ids[bucket.get(a)];
+        }
+        return true;
+    }
+
+    /**
+     * Mixes a seed into a hash code (MurmurHash3's finalizer).
+     *
+     * @return a non-negative hash
+     */
+    static int hash(int hashCode, int seed) {
+        int h = hashCode ^ (seed * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h & 0x7FFFFFFF;
+    }
+
+    /**
+     * @return the number of ids (and slots)
+     */
+    int size() {
+        return mIds.length;
+    }
+
+    /**
+     * @param id  an id
+     * @return the id's slot, or -1 if it isn't known
+     */
+    int indexOf(String id) {
+        if (mIds.length == 0) {
+            return -1;
+        }
+
+        int hashCode = id.hashCode();
+        int seed = mSeeds[hash(hashCode, 0) % mSeeds.length];
+        int slot = hash(hashCode, seed) % mIds.length;
+        return id.equals(mIds[slot]) ? slot : -1;
+    }
+
+    /**
+     * @param id  an id
+     * @return the slot of the id's canonical id, or -1 if it isn't known
+     */
+    int canonicalIndexOf(String id) {
+        int index = indexOf(id);
+        return index < 0 ? -1 : mCanonical[index];
+    }
+
+    /**
+     * @param index  a slot
+     * @return the slot of the canonical id for the id in that slot
+     */
+    int getCanonicalIndex(int index) {
+        return mCanonical[index];
+    }
+
+    /**
+     * @param index  a slot
+     * @return the id in that slot
+     */
+    String getId(int index) {
+        return mIds[index];
+    }
+}
@@ -0,0 +1,157 @@
+package net.danlew.android.joda;
+
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Reports when ResourceZoneInfoProvider loads zone data, and how long it took.
+ *
+ * Loading a zone means opening a raw resource and parsing it, which is exactly the
+ * sort of thing you don't want happening on the main thread.  It is easy to trigger
+ * by accident, though: the first DateTime.now() or DateUtils call for a given zone
+ * will do it.  This works like a zone-specific StrictMode; install a listener in
+ * debug builds and it will tell you where the loads are coming from.
+ *
+ * By default only loads on the main thread are reported.  This is meant for
+ * debugging, so don't leave it enabled in release builds (capturing the stack
+ * trace for each load isn't free).
+ */
+public final class ZoneLoadMonitor {
+
+    /**
+     * Receives zone load reports.  Called synchronously on the thread that loaded
+     * the zone, right after the load finishes.
+     */
+    public interface Listener {
+        void onZoneLoaded(ZoneLoad load);
+    }
+
+    /**
+     * Logs each load (with its stack trace) as a warning.
+     */
+    public static final Listener LOG = new Listener() {
+        @Override
+        public void onZoneLoaded(ZoneLoad load) {
+            Log.w("joda-time-android", load.getMessage(), load);
+        }
+    };
+
+    private static volatile Listener sListener;
+
+    private static volatile boolean sMainThreadOnly = true;
+
+    private ZoneLoadMonitor() {
+        // no instances
+        throw new AssertionError();
+    }
+
+    /**
+     * Reports zone loads on the main thread to the given listener.
+     *
+     * @param listener the listener, or null to stop reporting
+     */
+    public static void setListener(Listener listener) {
+        setListener(listener, true);
+    }
+
+    /**
+     * Reports zone loads to the given listener.
+     *
+     * @param listener the listener, or null to stop reporting
+     * @param mainThreadOnly if true, only loads on the main thread are reported
+     */
+    public static void setListener(Listener listener, boolean mainThreadOnly) {
+        sMainThreadOnly = mainThreadOnly;
+        sListener = listener;
+    }
+
+    /**
+     * @return true if there's a listener installed
+     */
+    static boolean isEnabled() {
+        return sListener != null;
+    }
+
+    /**
+     * Reports a finished load to the listener (if there is one).
+     *
+     * @param id the id of the zone that was loaded
+     * @param startNanos when the load started, as per System.nanoTime()
+     */
+    static void report(String id, long startNanos) {
+        reportDuration(id, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Reports a finished load to the listener (if there is one).
+     *
+     * @param id the id of the zone that was loaded
+     * @param durationNanos how long the load took
+     */
+    static void reportDuration(String id, long durationNanos) {
+        Listener listener = sListener;
+        if (listener == null) {
+            return;
+        }
+
+        boolean mainThread = Looper.myLooper() == Looper.getMainLooper();
+        if (sMainThreadOnly && !mainThread) {
+            return;
+        }
+
+        listener.onZoneLoaded(new ZoneLoad(id, durationNanos, mainThread));
+    }
+
+    /**
+     * A single zone load.  Its stack trace points at whatever triggered the load.
+     */
+    public static final class ZoneLoad extends Throwable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String mId;
+
+        private final long mDurationNanos;
+
+        private final boolean mMainThread;
+
+        private final String mThreadName;
+
+        ZoneLoad(String id, long durationNanos, boolean mainThread) {
+            super("Loaded zone \"" + id + "\" in " + (durationNanos / 1000) + "us on thread \""
+                + Thread.currentThread().getName() + "\"");
+            mId = id;
+            mDurationNanos = durationNanos;
+            mMainThread = mainThread;
+            mThreadName = Thread.currentThread().getName();
+        }
+
+        /**
+         * @return the id of the zone that was loaded
+         */
+        public String getId() {
+            return mId;
+        }
+
+        /**
+         * @return how long it took to load the zone, in nanoseconds
+         */
+        public long getDurationNanos() {
+            return mDurationNanos;
+        }
+
+        /**
+         * @return true if the zone was loaded on the main thread
+         */
+        public boolean isMainThread() {
+            return mMainThread;
+        }
+
+        /**
+         * @return the name of the thread the zone was loaded on
+         */
+        public String getThreadName() {
+            return mThreadName;
+        }
+    }
+}
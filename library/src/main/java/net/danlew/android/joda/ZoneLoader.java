@@ -0,0 +1,267 @@
+package net.danlew.android.joda;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.tz.Provider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up DateTimeZones without blocking the caller.
+ *
+ * The first time a zone is requested via DateTimeZone.forID(), its data has to be
+ * read from resources and parsed.  That's fine on a background thread but can cause
+ * jank on the main thread.  ZoneLoader does the lookup on an Executor of your choosing
+ * instead, so that you can (for example) resolve zone ids from a backend response
+ * without stalling the UI.
+ */
+public final class ZoneLoader {
+
+    /**
+     * Receives the result of an asynchronous zone lookup.
+     */
+    public interface Callback {
+
+        /**
+         * @param id the id that was requested
+         * @param zone the zone, or null if the id was not recognized (or it couldn't be
+         * looked up, because the Executor rejected it)
+         */
+        void onZoneLoaded(String id, DateTimeZone zone);
+    }
+
+    /** Lookups in progress; any further requests for the same id join these instead of starting anew. */
+    private static final ConcurrentMap<String, PendingZone> sPending = new ConcurrentHashMap<String, PendingZone>();
+
+    private ZoneLoader() {
+        // no instances
+        throw new AssertionError();
+    }
+
+    /**
+     * Looks up a zone (as per DateTimeZone.forID()) on the given Executor.
+     *
+     * If the zone is already loaded, there's no need to go to the Executor; the callback is
+     * invoked immediately on the calling thread.  Otherwise the callback is invoked on the
+     * Executor's thread, so post to the main thread from there if you need to.
+     *
+     * If a lookup for the same id is already in progress, this joins it rather than
+     * loading the zone again.
+     *
+     * @param id the id of the zone
+     * @param executor the Executor to load on
+     * @param callback receives the result; may be null if you just want the Future
+     * @return a Future for the zone; get() throws an ExecutionException if the id was
+     * not recognized, or if the Executor rejected the lookup
+     */
+    public static Future<DateTimeZone> forIDAsync(final String id, Executor executor, Callback callback) {
+        if (id == null) {
+            throw new IllegalArgumentException("id must not be null");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+
+        DateTimeZone loaded = getLoadedZone(id);
+        if (loaded != null) {
+            if (callback != null) {
+                callback.onZoneLoaded(id, loaded);
+            }
+            return new LoadedZone(loaded);
+        }
+
+        PendingZone pending = new PendingZone(id);
+        PendingZone existing = sPending.putIfAbsent(id, pending);
+        if (existing != null) {
+            pending = existing;
+        }
+
+        if (callback != null) {
+            pending.addCallback(callback);
+        }
+
+        if (existing == null) {
+            try {
+                executor.execute(pending);
+            }
+            catch (RejectedExecutionException e) {
+                // Otherwise everyone who joins this lookup later would wait forever
+                sPending.remove(id, pending);
+                pending.fail(e);
+            }
+        }
+
+        return pending;
+    }
+
+    /**
+     * Looks up many zones (as per DateTimeZone.forID()) at once.  When using
+     * ResourceZoneInfoProvider, this reads all the unloaded zones in one pass, which is
+     * much faster than looking each one up in turn.
+     *
+     * This blocks until all zones are loaded, so don't call it on the main thread.
+     *
+     * @param ids the ids of the zones
+     * @param parseExecutor if not null, zones are parsed in parallel on this Executor
+     * @return the zones, keyed by requested id (in the order requested); ids which are
+     * not recognized are left out
+     * @see ResourceZoneInfoProvider#getZones(Collection, Executor)
+     */
+    public static Map<String, DateTimeZone> forIDs(Collection<String> ids, Executor parseExecutor) {
+        Map<String, DateTimeZone> zones;
+        Provider provider = DateTimeZone.getProvider();
+        if (provider instanceof ResourceZoneInfoProvider) {
+            zones = ((ResourceZoneInfoProvider) provider).getZones(ids, parseExecutor);
+        }
+        else {
+            zones = new LinkedHashMap<String, DateTimeZone>();
+        }
+
+        // Anything the provider doesn't know about might still be valid (e.g. offsets like "+05:00")
+        if (zones.size() != ids.size()) {
+            Map<String, DateTimeZone> allZones = new LinkedHashMap<String, DateTimeZone>();
+            for (String id : ids) {
+                DateTimeZone zone = zones.get(id);
+                if (zone == null && id != null && !allZones.containsKey(id)) {
+                    try {
+                        zone = DateTimeZone.forID(id);
+                    }
+                    catch (IllegalArgumentException e) {
+                        // Not a valid id; leave it out
+                    }
+                }
+                if (zone != null) {
+                    allZones.put(id, zone);
+                }
+            }
+            zones = allZones;
+        }
+
+        return zones;
+    }
+
+    /**
+     * @return the zone if it's already loaded (so can be returned without any I/O), else null
+     */
+    private static DateTimeZone getLoadedZone(String id) {
+        if ("UTC".equals(id)) {
+            return DateTimeZone.UTC;
+        }
+
+        Provider provider = DateTimeZone.getProvider();
+        if (provider instanceof ResourceZoneInfoProvider) {
+            return ((ResourceZoneInfoProvider) provider).getLoadedZone(id);
+        }
+
+        return null;
+    }
+
+    /**
+     * A zone that was already loaded, so there's nothing to wait for.
+     */
+    private static final class LoadedZone implements Future<DateTimeZone> {
+
+        private final DateTimeZone mZone;
+
+        LoadedZone(DateTimeZone zone) {
+            mZone = zone;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public DateTimeZone get() {
+            return mZone;
+        }
+
+        @Override
+        public DateTimeZone get(long timeout, TimeUnit unit) {
+            return mZone;
+        }
+    }
+
+    /**
+     * A lookup in progress, which may have several callbacks waiting on it.
+     */
+    private static final class PendingZone extends FutureTask<DateTimeZone> {
+
+        private final String mId;
+
+        private final List<Callback> mCallbacks = new ArrayList<Callback>();
+
+        PendingZone(final String id) {
+            super(new Callable<DateTimeZone>() {
+                @Override
+                public DateTimeZone call() {
+                    return DateTimeZone.forID(id);
+                }
+            });
+            mId = id;
+        }
+
+        void fail(Throwable t) {
+            setException(t);
+        }
+
+        void addCallback(Callback callback) {
+            synchronized (mCallbacks) {
+                if (!isDone()) {
+                    mCallbacks.add(callback);
+                    return;
+                }
+            }
+
+            deliver(callback);
+        }
+
+        @Override
+        protected void done() {
+            sPending.remove(mId, this);
+
+            List<Callback> callbacks;
+            synchronized (mCallbacks) {
+                callbacks = new ArrayList<Callback>(mCallbacks);
+                mCallbacks.clear();
+            }
+
+            for (Callback callback : callbacks) {
+                deliver(callback);
+            }
+        }
+
+        private void deliver(Callback callback) {
+            DateTimeZone zone;
+            try {
+                zone = get();
+            }
+            catch (Exception e) {
+                zone = null;
+            }
+            callback.onZoneLoaded(mId, zone);
+        }
+    }
+}
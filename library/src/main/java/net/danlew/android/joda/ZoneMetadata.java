@@ -0,0 +1,324 @@
+package net.danlew.android.joda;
+
+import android.content.Context;
+import org.joda.time.DateTimeZone;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Answers common questions about zones (offsets, DST, upcoming transitions) from a
+ * small table generated at build time, without loading any zone's data.
+ *
+ * This is meant for things like zone pickers, which want to show the current offset
+ * of every zone; loading all ~600 zones through ResourceZoneInfoProvider just for
+ * that is slow.  The table only covers a window of years (see getWindowStart() and
+ * getWindowEnd()), starting with the year of the tzdata release.  Questions about instants
+ * outside that window are still answered, but by loading the zone (via DateTimeZone.forID()),
+ * so they're as slow as doing that yourself.  For anything more detailed, load the zone itself.
+ */
+public final class ZoneMetadata {
+
+    /** Format version of the ZoneMeta file; must match CompileTzDataTask in the plugin */
+    private static final int VERSION = 1;
+
+    private static final int KIND_FIXED = 0;
+
+    private static final int KIND_DAYLIGHT = 2;
+
+    private final long mWindowStart;
+
+    private final long mWindowEnd;
+
+    /** All ids, sorted */
+    private final String[] mIds;
+
+    /** For each id, the index of its zone */
+    private final int[] mZoneIndexes;
+
+    /** For each zone, the index of its (canonical) id */
+    private final int[] mZoneIds;
+
+    private final byte[] mZoneKinds;
+
+    /** For each zone, the index of its first period; has an extra element at the end */
+    private final int[] mFirstPeriods;
+
+    private final long[] mPeriodStarts;
+
+    private final int[] mOffsets;
+
+    private final int[] mStandardOffsets;
+
+    public ZoneMetadata(Context context) throws IOException {
+        this(openResource(context));
+    }
+
+    ZoneMetadata(InputStream in) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        try {
+            if (din.readUnsignedShort() != VERSION) {
+                throw new IOException("Unknown zone metadata version");
+            }
+
+            mWindowStart = din.readLong();
+            mWindowEnd = din.readLong();
+
+            int idCount = din.readUnsignedShort();
+            mIds = new String[idCount];
+            for (int a = 0; a < idCount; a++) {
+                mIds[a] = din.readUTF().intern();
+            }
+
+            mZoneIndexes = new int[idCount];
+            for (int a = 0; a < idCount; a++) {
+                mZoneIndexes[a] = din.readUnsignedShort();
+            }
+
+            int zoneCount = din.readUnsignedShort();
+            mZoneIds = new int[zoneCount];
+            mZoneKinds = new byte[zoneCount];
+            mFirstPeriods = new int[zoneCount + 1];
+
+            // Periods are read into oversized arrays, then trimmed
+            long[] periodStarts = new long[zoneCount * 4];
+            int[] offsets = new int[periodStarts.length];
+            int[] standardOffsets = new int[periodStarts.length];
+            int periodCount = 0;
+            for (int a = 0; a < zoneCount; a++) {
+                mZoneIds[a] = din.readUnsignedShort();
+                mZoneKinds[a] = din.readByte();
+                mFirstPeriods[a] = periodCount;
+
+                int count = din.readUnsignedShort();
+                if (periodCount + count > periodStarts.length) {
+                    int length = Math.max(periodStarts.length * 2, periodCount + count);
+                    periodStarts = Arrays.copyOf(periodStarts, length);
+                    offsets = Arrays.copyOf(offsets, length);
+                    standardOffsets = Arrays.copyOf(standardOffsets, length);
+                }
+
+                for (int b = 0; b < count; b++) {
+                    periodStarts[periodCount] = din.readLong();
+                    offsets[periodCount] = din.readInt();
+                    standardOffsets[periodCount] = din.readInt();
+                    periodCount++;
+                }
+            }
+            mFirstPeriods[zoneCount] = periodCount;
+
+            mPeriodStarts = Arrays.copyOf(periodStarts, periodCount);
+            mOffsets = Arrays.copyOf(offsets, periodCount);
+            mStandardOffsets = Arrays.copyOf(standardOffsets, periodCount);
+        }
+        catch (ArrayIndexOutOfBoundsException ex) {
+            throw new IOException("Corrupt zone metadata");
+        }
+        finally {
+            try {
+                din.close();
+            }
+            catch (IOException ex) {
+            }
+        }
+    }
+
+    /**
+     * @return the start of the window (inclusive) covered by the metadata, in millis since the epoch
+     */
+    public long getWindowStart() {
+        return mWindowStart;
+    }
+
+    /**
+     * @return the end of the window (exclusive) covered by the metadata, in millis since the epoch
+     */
+    public long getWindowEnd() {
+        return mWindowEnd;
+    }
+
+    /**
+     * @param instant the instant, in millis since the epoch
+     * @return true if the metadata covers the instant
+     */
+    public boolean covers(long instant) {
+        return instant >= mWindowStart && instant < mWindowEnd;
+    }
+
+    /**
+     * @return all ids (including aliases), the same as ResourceZoneInfoProvider.getAvailableIDs()
+     */
+    public Set<String> getAvailableIDs() {
+        return new TreeSet<String>(Arrays.asList(mIds));
+    }
+
+    /**
+     * @param id the id
+     * @return the canonical id for the id (the id itself, unless it's an alias), or null
+     * if the id isn't recognized
+     */
+    public String getCanonicalID(String id) {
+        int index = indexOf(id);
+        return index < 0 ? null : mIds[mZoneIds[mZoneIndexes[index]]];
+    }
+
+    /**
+     * @param id the id
+     * @return true if the zone always has the same offset
+     * @throws IllegalArgumentException if the id isn't recognized
+     */
+    public boolean isFixed(String id) {
+        return mZoneKinds[getZoneIndex(id)] == KIND_FIXED;
+    }
+
+    /**
+     * @param id the id
+     * @return true if the zone observes daylight saving time at some point in the window
+     * @throws IllegalArgumentException if the id isn't recognized
+     */
+    public boolean observesDaylightTime(String id) {
+        return mZoneKinds[getZoneIndex(id)] == KIND_DAYLIGHT;
+    }
+
+    /**
+     * @param id the id
+     * @param instant the instant, in millis since the epoch
+     * @return the zone's total offset at the instant, as per DateTimeZone.getOffset()
+     * @throws IllegalArgumentException if the id isn't recognized
+     */
+    public int getOffset(String id, long instant) {
+        int zone = getZoneIndex(id);
+        if (!covers(zone, instant)) {
+            return getZone(zone).getOffset(instant);
+        }
+        return mOffsets[getPeriodIndex(zone, instant)];
+    }
+
+    /**
+     * @param id the id
+     * @param instant the instant, in millis since the epoch
+     * @return the zone's standard offset at the instant, as per DateTimeZone.getStandardOffset()
+     * @throws IllegalArgumentException if the id isn't recognized
+     */
+    public int getStandardOffset(String id, long instant) {
+        int zone = getZoneIndex(id);
+        if (!covers(zone, instant)) {
+            return getZone(zone).getStandardOffset(instant);
+        }
+        return mStandardOffsets[getPeriodIndex(zone, instant)];
+    }
+
+    /**
+     * @param id the id
+     * @param instant the instant, in millis since the epoch
+     * @return true if daylight saving time is in effect at the instant
+     * @throws IllegalArgumentException if the id isn't recognized
+     */
+    public boolean isDaylight(String id, long instant) {
+        int zone = getZoneIndex(id);
+        if (!covers(zone, instant)) {
+            return !getZone(zone).isStandardOffset(instant);
+        }
+        int period = getPeriodIndex(zone, instant);
+        return mOffsets[period] != mStandardOffsets[period];
+    }
+
+    /**
+     * Finds the next time the zone's offset changes.
+     *
+     * Unlike DateTimeZone.nextTransition(), this skips transitions which only change the
+     * zone's name.
+     *
+     * @param id the id
+     * @param instant the instant, in millis since the epoch
+     * @return the next time the offset changes, or the instant itself if it doesn't change
+     * (before the end of the window, if the instant is inside it)
+     * @throws IllegalArgumentException if the id isn't recognized
+     */
+    public long nextTransition(String id, long instant) {
+        int zone = getZoneIndex(id);
+        if (!covers(zone, instant)) {
+            return nextOffsetChange(getZone(zone), instant);
+        }
+        int next = getPeriodIndex(zone, instant) + 1;
+        return next < mFirstPeriods[zone + 1] ? mPeriodStarts[next] : instant;
+    }
+
+    private static InputStream openResource(Context context) throws IOException {
+        if (context == null) {
+            throw new IllegalArgumentException("Context must not be null");
+        }
+
+        String resName = ResUtils.getTzResource("ZoneMeta");
+        int resId = ResUtils.getIdentifier(R.raw.class, resName);
+        if (resId == 0) {
+            throw new IOException("Resource not found: \"ZoneMeta\" (resName: \"" + resName + "\")");
+        }
+
+        return context.getApplicationContext().getResources().openRawResource(resId);
+    }
+
+    private int indexOf(String id) {
+        return id == null ? -1 : Arrays.binarySearch(mIds, id);
+    }
+
+    private int getZoneIndex(String id) {
+        int index = indexOf(id);
+        if (index < 0) {
+            throw new IllegalArgumentException("The datetime zone id '" + id + "' is not recognised");
+        }
+        return mZoneIndexes[index];
+    }
+
+    /**
+     * @return true if the metadata can answer for the zone at the instant (fixed zones have the
+     * same offset forever, so they're always covered)
+     */
+    private boolean covers(int zone, long instant) {
+        return mZoneKinds[zone] == KIND_FIXED || covers(instant);
+    }
+
+    /**
+     * @return the zone itself, for instants outside the window
+     */
+    private DateTimeZone getZone(int zone) {
+        return DateTimeZone.forID(mIds[mZoneIds[zone]]);
+    }
+
+    private static long nextOffsetChange(DateTimeZone zone, long instant) {
+        int offset = zone.getOffset(instant);
+        int standardOffset = zone.getStandardOffset(instant);
+        long next = instant;
+        while (true) {
+            long transition = zone.nextTransition(next);
+            if (transition == next) {
+                return instant;
+            }
+            if (zone.getOffset(transition) != offset || zone.getStandardOffset(transition) != standardOffset) {
+                return transition;
+            }
+            next = transition;
+        }
+    }
+
+    private int getPeriodIndex(int zone, long instant) {
+        int low = mFirstPeriods[zone];
+        int high = mFirstPeriods[zone + 1] - 1;
+
+        long[] starts = mPeriodStarts;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= instant) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,214 @@
+package net.danlew.android.joda;
+
+import org.joda.time.DateTimeConstants;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Computes zone offsets for many instants at once.
+ *
+ * Calling DateTimeZone.getOffset() for each instant does an independent search of
+ * the zone's transitions every time.  These methods instead remember the period
+ * (between two transitions) that the last instant fell into, so that for sorted
+ * input (e.g. a timeline) each transition is only looked up once.  Unsorted input
+ * works too; it just doesn't benefit as much.
+ *
+ * Results are identical to calling the equivalent DateTimeZone method on each instant.
+ */
+public final class ZoneOffsets {
+
+    /**
+     * Offsets are always less than a day, so an instant further than this from the nearest
+     * transition can't be ambiguous when converting from local time.
+     */
+    private static final long UNAMBIGUOUS_MARGIN = 2L * DateTimeConstants.MILLIS_PER_DAY;
+
+    private ZoneOffsets() {
+        // no instances
+        throw new AssertionError();
+    }
+
+    /**
+     * Gets the offset for each instant, as per {@link DateTimeZone#getOffset(long)}.
+     *
+     * @param zone the zone
+     * @param instants the instants (in millis since the epoch)
+     * @param offsets receives the offsets; must be at least as long as instants
+     */
+    public static void getOffsets(DateTimeZone zone, long[] instants, int[] offsets) {
+        checkLengths(instants.length, offsets.length);
+
+        if (zone.isFixed()) {
+            int offset = zone.getOffset(0);
+            for (int a = 0; a < instants.length; a++) {
+                offsets[a] = offset;
+            }
+            return;
+        }
+
+        Cursor cursor = new Cursor(zone);
+        for (int a = 0; a < instants.length; a++) {
+            offsets[a] = cursor.getOffset(instants[a]);
+        }
+    }
+
+    /**
+     * Converts each instant to local millis (i.e., adds the zone's offset to it).
+     *
+     * @param zone the zone
+     * @param instants the instants (in millis since the epoch)
+     * @param localMillis receives the local millis; must be at least as long as instants
+     */
+    public static void toLocalMillis(DateTimeZone zone, long[] instants, long[] localMillis) {
+        checkLengths(instants.length, localMillis.length);
+
+        Cursor cursor = new Cursor(zone);
+        for (int a = 0; a < instants.length; a++) {
+            localMillis[a] = instants[a] + cursor.getOffset(instants[a]);
+        }
+    }
+
+    /**
+     * Converts each local millis value to an instant, as per
+     * {@link DateTimeZone#convertLocalToUTC(long, boolean)}.
+     *
+     * Local times which fall into a gap (e.g., when clocks spring forward) either throw
+     * or are shifted forward, depending on strict.  Local times which fall into an
+     * overlap (e.g., when clocks fall back) resolve to the earlier instant.
+     *
+     * @param zone the zone
+     * @param localMillis the local millis
+     * @param strict if true, throws an IllegalInstantException for local times in a gap
+     * @param instants receives the instants; must be at least as long as localMillis
+     */
+    public static void convertLocalToUTC(DateTimeZone zone, long[] localMillis, boolean strict, long[] instants) {
+        checkLengths(localMillis.length, instants.length);
+
+        Cursor cursor = new Cursor(zone);
+        for (int a = 0; a < localMillis.length; a++) {
+            long local = localMillis[a];
+            long instant = local - cursor.mOffset;
+            if (instant >= cursor.mSafeStart && instant < cursor.mSafeEnd) {
+                cursor.hit();
+            }
+            else {
+                instant = zone.convertLocalToUTC(local, strict);
+                cursor.miss(instant, true);
+            }
+            instants[a] = instant;
+        }
+    }
+
+    /**
+     * Remembers the period (between two transitions) containing the last instant looked up.
+     *
+     * If the input isn't sorted, looking up the period each time is a waste, so if it keeps
+     * missing then it backs off to looking up offsets directly for a while (for longer each
+     * time it keeps missing afterwards).
+     */
+    private static final class Cursor {
+
+        /** How many consecutive misses before backing off */
+        private static final int MAX_MISSES = 2;
+
+        /** How many lookups to skip the cursor for when first backing off */
+        private static final int BACKOFF = 32;
+
+        /** The most lookups to skip the cursor for, after backing off repeatedly */
+        private static final int MAX_BACKOFF = 1024;
+
+        private final DateTimeZone mZone;
+
+        /** [mStart, mEnd) is a span where the offset is known to be constant (mOffset) */
+        long mStart = Long.MAX_VALUE;
+
+        long mEnd = Long.MIN_VALUE;
+
+        /**
+         * [mSafeStart, mSafeEnd) is the middle of the span, far enough from any transition that
+         * local times can't be in a gap or overlap, so they can be converted using mOffset
+         */
+        long mSafeStart = Long.MAX_VALUE;
+
+        long mSafeEnd = Long.MIN_VALUE;
+
+        int mOffset;
+
+        int mMisses;
+
+        private int mBackoff;
+
+        /** How long the next backoff will be */
+        private int mBackoffLength = BACKOFF;
+
+        Cursor(DateTimeZone zone) {
+            mZone = zone;
+        }
+
+        int getOffset(long instant) {
+            if (instant >= mStart && instant < mEnd) {
+                hit();
+                return mOffset;
+            }
+
+            if (!miss(instant, false)) {
+                return mZone.getOffset(instant);
+            }
+            return mOffset;
+        }
+
+        /**
+         * Records that the cursor was useful, so any backoff starts over from the shortest.
+         */
+        void hit() {
+            mMisses = 0;
+            mBackoffLength = BACKOFF;
+        }
+
+        /**
+         * Moves the cursor to the period containing the instant, unless it's backing off.
+         *
+         * Finding where the period starts is relatively expensive, and for ascending input
+         * the instant itself will do; but local times need to know how far the previous
+         * transition is.
+         *
+         * @param instant the instant
+         * @param findStart if true, finds the actual start of the period
+         * @return true if the cursor moved
+         */
+        boolean miss(long instant, boolean findStart) {
+            if (mBackoff > 0) {
+                mBackoff--;
+                return false;
+            }
+
+            if (++mMisses > MAX_MISSES) {
+                mMisses = 0;
+                mBackoff = mBackoffLength;
+                mBackoffLength = Math.min(mBackoffLength * 2, MAX_BACKOFF);
+            }
+
+            mOffset = mZone.getOffset(instant);
+
+            if (findStart) {
+                long previous = mZone.previousTransition(instant);
+                mStart = previous == instant ? Long.MIN_VALUE : previous + 1;
+            }
+            else {
+                mStart = instant;
+            }
+
+            long next = mZone.nextTransition(instant);
+            mEnd = next > instant ? next : Long.MAX_VALUE;
+
+            mSafeStart = mStart == Long.MIN_VALUE ? Long.MIN_VALUE : mStart + UNAMBIGUOUS_MARGIN;
+            mSafeEnd = mEnd == Long.MAX_VALUE ? Long.MAX_VALUE : mEnd - UNAMBIGUOUS_MARGIN;
+            return true;
+        }
+    }
+
+    private static void checkLengths(int inputLength, int outputLength) {
+        if (outputLength < inputLength) {
+            throw new IllegalArgumentException("Output array must be at least as long as input array");
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package net.danlew.android.joda;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.tz.CachedDateTimeZone;
+
+/**
+ * Steps through a zone's transitions between two instants, without creating any
+ * objects along the way.
+ *
+ * This is the primitive equivalent of looping over DateTimeZone.nextTransition() and
+ * wrapping each result in a DateTime to find out what changed.  It works the same for
+ * the zone's historical transitions and for its recurring DST rules.  A cursor can be
+ * reset and reused; it is not thread-safe.
+ *
+ * Usage:
+ *
+ * <pre>
+ * ZoneTransitionCursor cursor = new ZoneTransitionCursor();
+ * cursor.reset(zone, start, end);
+ * while (cursor.next()) {
+ *     long instant = cursor.getInstant();
+ *     int delta = cursor.getOffsetAfter() - cursor.getOffsetBefore();
+ *     ...
+ * }
+ * </pre>
+ */
+public final class ZoneTransitionCursor {
+
+    private DateTimeZone mZone;
+
+    private long mEnd;
+
+    private long mInstant;
+
+    private boolean mFinished = true;
+
+    private int mOffsetBefore;
+
+    private int mStandardOffsetBefore;
+
+    private int mOffsetAfter;
+
+    private int mStandardOffsetAfter;
+
+    /**
+     * Positions the cursor before the first transition in [start, end).
+     *
+     * @param zone the zone whose transitions to step through
+     * @param start the start of the range (inclusive), in millis since the epoch
+     * @param end the end of the range (exclusive), in millis since the epoch
+     */
+    public void reset(DateTimeZone zone, long start, long end) {
+        if (zone == null) {
+            throw new IllegalArgumentException("zone must not be null");
+        }
+
+        // A cursor visits each period once, so CachedDateTimeZone's cache doesn't help, and
+        // over long ranges it keeps missing (which allocates)
+        mZone = zone instanceof CachedDateTimeZone ? ((CachedDateTimeZone) zone).getUncachedZone() : zone;
+        mEnd = end;
+        mFinished = zone.isFixed() || start >= end;
+
+        // Start just before the range, so that a transition right at the start is included
+        mInstant = start == Long.MIN_VALUE ? start : start - 1;
+        mOffsetAfter = zone.getOffset(mInstant);
+        mStandardOffsetAfter = zone.getStandardOffset(mInstant);
+        mOffsetBefore = mOffsetAfter;
+        mStandardOffsetBefore = mStandardOffsetAfter;
+    }
+
+    /**
+     * Moves to the next transition.
+     *
+     * @return true if there was another transition in the range, false if the cursor is done
+     */
+    public boolean next() {
+        if (mFinished) {
+            return false;
+        }
+
+        long next = mZone.nextTransition(mInstant);
+        if (next <= mInstant || next >= mEnd) {
+            mFinished = true;
+            return false;
+        }
+
+        mInstant = next;
+        mOffsetBefore = mOffsetAfter;
+        mStandardOffsetBefore = mStandardOffsetAfter;
+        mOffsetAfter = mZone.getOffset(next);
+        mStandardOffsetAfter = mZone.getStandardOffset(next);
+        return true;
+    }
+
+    /**
+     * @return the instant of the current transition, in millis since the epoch
+     */
+    public long getInstant() {
+        return mInstant;
+    }
+
+    /**
+     * @return the total offset in effect just before the current transition
+     */
+    public int getOffsetBefore() {
+        return mOffsetBefore;
+    }
+
+    /**
+     * @return the total offset in effect from the current transition on
+     */
+    public int getOffsetAfter() {
+        return mOffsetAfter;
+    }
+
+    /**
+     * @return the standard offset in effect just before the current transition
+     */
+    public int getStandardOffsetBefore() {
+        return mStandardOffsetBefore;
+    }
+
+    /**
+     * @return the standard offset in effect from the current transition on
+     */
+    public int getStandardOffsetAfter() {
+        return mStandardOffsetAfter;
+    }
+
+    /**
+     * @return true if daylight saving time was in effect just before the current transition
+     */
+    public boolean isDaylightBefore() {
+        return mOffsetBefore != mStandardOffsetBefore;
+    }
+
+    /**
+     * @return true if daylight saving time is in effect from the current transition on
+     */
+    public boolean isDaylightAfter() {
+        return mOffsetAfter != mStandardOffsetAfter;
+    }
+}
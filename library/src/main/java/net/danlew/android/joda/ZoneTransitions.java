@@ -0,0 +1,82 @@
+package net.danlew.android.joda;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.ISOChronology;
+
+/**
+ * A zone's transitions over a window of years, flattened into primitive arrays.
+ */
+final class ZoneTransitions {
+
+    /**
+     * Collects a zone's transitions over the given years.
+     *
+     * @param zone the zone
+     * @param startYear the first year (inclusive), in UTC
+     * @param endYear the last year (inclusive), in UTC
+     * @return the transitions
+     */
+    static ZoneTransitions collect(DateTimeZone zone, int startYear, int endYear) {
+        ISOChronology utc = ISOChronology.getInstanceUTC();
+        long start = utc.getDateTimeMillis(startYear, 1, 1, 0);
+        long end = utc.getDateTimeMillis(endYear + 1, 1, 1, 0);
+
+        // Count the transitions first so that we only allocate once
+        int count = 1;
+        long instant = start;
+        long next;
+        while ((next = zone.nextTransition(instant)) > instant && next < end) {
+            count++;
+            instant = next;
+        }
+
+        ZoneTransitions transitions = new ZoneTransitions(end, count);
+
+        instant = start;
+        for (int a = 0; a < count; a++) {
+            if (a != 0) {
+                instant = zone.nextTransition(instant);
+            }
+            transitions.mInstants[a] = instant;
+            transitions.mOffsets[a] = zone.getOffset(instant);
+            transitions.mStandardOffsets[a] = zone.getStandardOffset(instant);
+            transitions.mNameKeys[a] = zone.getNameKey(instant);
+        }
+
+        return transitions;
+    }
+
+    /** Where the window ends (exclusive) */
+    final long mEnd;
+
+    /** The start of each period; the first is the start of the window, the rest are actual transitions */
+    final long[] mInstants;
+
+    final int[] mOffsets;
+
+    final int[] mStandardOffsets;
+
+    final String[] mNameKeys;
+
+    private ZoneTransitions(long end, int count) {
+        mEnd = end;
+        mInstants = new long[count];
+        mOffsets = new int[count];
+        mStandardOffsets = new int[count];
+        mNameKeys = new String[count];
+    }
+
+    /**
+     * @return the start of the window (inclusive)
+     */
+    long getStart() {
+        return mInstants[0];
+    }
+
+    /**
+     * @return the number of periods
+     */
+    int size() {
+        return mInstants.length;
+    }
+}